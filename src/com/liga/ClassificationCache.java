@@ -0,0 +1,261 @@
+/*
+ * Title: ClassificationCache.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of classification results for repeated messages (retweets, templates, bot posts).
+ * Results are kept by message text, ngram length and kind of the result in LRU order and evicted
+ * when there are more entries or more cached characters than allowed. The cache is split into segments
+ * with their own locks, so threads classifying different messages rarely wait for each other.
+ *
+ * Every result is stored with the version of the model it was computed with, model versions are unique
+ * and change with every change of the model (training, loading, merging, pruning, swapping),
+ * so results of older models are never returned (they are dropped when they are found).
+ * One cache can be shared by several models
+ */
+public class ClassificationCache {
+
+    // kinds of cached results
+    static final int MOST_PROBABLE = 0;
+    static final int ALL = 1;
+    static final int MOST_PROBABLE_TEXT = 2;
+    static final int ALL_TEXT = 3;
+
+    // versions of all the models
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    // metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ClassificationCache(ClassificationCacheBuilder builder) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(builder.segments, builder.maxEntries)));
+        this.segments = new Segment[count];
+        this.segmentMask = count - 1;
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(Math.max(1, builder.maxEntries / count), Math.max(1, builder.maxWeight / count));
+    }
+
+    /**
+     * new unique model version
+     */
+    static long nextVersion() {
+        return VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Cached result
+     *
+     * @param version     current version of the model
+     * @param kind        kind of the result
+     * @param text        message
+     * @param ngramLength n
+     * @return result or null if it is not cached (or was computed by another model version)
+     */
+    Object get(long version, int kind, String text, int ngramLength) {
+        Key key = new Key(kind, text, ngramLength);
+        Segment segment = segmentOf(key);
+        synchronized (segment) {
+            Entry entry = segment.map.get(key);
+            if (entry != null && entry.version != version) {
+                segment.map.remove(key);
+                segment.weight -= entry.weight;
+                invalidations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.result;
+        }
+    }
+
+    /**
+     * Caches the result, least recently used results are evicted if the segment is full
+     *
+     * @param version     version of the model the result was computed with
+     * @param kind        kind of the result
+     * @param text        message
+     * @param ngramLength n
+     * @param result      result
+     */
+    void put(long version, int kind, String text, int ngramLength, Object result) {
+        Key key = new Key(kind, text, ngramLength);
+        Segment segment = segmentOf(key);
+        // messages heavier than the whole segment are not cached
+        if (text.length() > segment.maxWeight)
+            return;
+        synchronized (segment) {
+            Entry previous = segment.map.put(key, new Entry(result, version, text.length()));
+            if (previous != null)
+                segment.weight -= previous.weight;
+            segment.weight += text.length();
+            Iterator<Entry> eldest = segment.map.values().iterator();
+            while (segment.map.size() > segment.maxEntries || segment.weight > segment.maxWeight) {
+                segment.weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * drops all the results (metrics are kept)
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * number of cached results
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        return size;
+    }
+
+    /**
+     * Cache metrics: hits, misses, evictions (results dropped because the cache was full),
+     * invalidations (results of older model versions), entries and weight (cached characters)
+     */
+    public TreeMap<String, Long> getMetrics() {
+        long entries = 0;
+        long weight = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                entries += segment.map.size();
+                weight += segment.weight;
+            }
+        TreeMap<String, Long> metrics = new TreeMap<>();
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("evictions", evictions.get());
+        metrics.put("invalidations", invalidations.get());
+        metrics.put("entries", entries);
+        metrics.put("weight", weight);
+        return metrics;
+    }
+
+    private Segment segmentOf(Key key) {
+        // high bits of the hash, low ones are used by the map of the segment
+        int h = key.hash * 0x9E3779B9;
+        return segments[(h >>> 16) & segmentMask];
+    }
+
+    /**
+     * message, ngram length and kind of the result, hash of the message is computed once
+     */
+    private static final class Key {
+
+        private final int kind;
+        private final String text;
+        private final int ngramLength;
+        private final int hash;
+
+        Key(int kind, String text, int ngramLength) {
+            this.kind = kind;
+            this.text = text;
+            this.ngramLength = ngramLength;
+            this.hash = (text.hashCode() * 31 + ngramLength) * 31 + kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return hash == key.hash && kind == key.kind && ngramLength == key.ngramLength && text.equals(key.text);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object result;
+        private final long version;
+        private final int weight;
+
+        Entry(Object result, long version, int weight) {
+            this.result = result;
+            this.version = version;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * entries in access order, the eldest is the least recently used one
+     */
+    private static final class Segment {
+
+        private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxWeight;
+        private long weight = 0;
+
+        Segment(int maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+    }
+
+    public static class ClassificationCacheBuilder {
+
+        // max number of cached results
+        private int maxEntries;
+        // max number of characters of cached messages
+        private long maxWeight = Long.MAX_VALUE;
+        // number of segments (rounded down to a power of two)
+        private int segments = 16;
+
+        public ClassificationCacheBuilder setMaxWeight(long maxWeight) {
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        public ClassificationCacheBuilder setSegments(int segments) {
+            this.segments = segments;
+            return this;
+        }
+
+        /**
+         * builder
+         */
+        public ClassificationCacheBuilder(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public ClassificationCache build() {
+            return new ClassificationCache(this);
+        }
+    }
+}
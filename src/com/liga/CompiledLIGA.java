@@ -0,0 +1,441 @@
+/*
+ * Title: CompiledLIGA.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+/**
+ * Read-only LIGA (logLIGA) classifier, created with {@link LIGA#compile()}.
+ * The graph is stored in compressed sparse row (CSR) arrays: node weights and outgoing edges of every ngram
+ * are contiguous array ranges, edge lookup is a binary search over sorted target ids of the source ngram.
+ * Counts are stored already normalized by the language totals (logarithms and divisions are done once,
+ * when the model is compiled), so scoring is a sequence of additions.
+ * Quantized models ({@link LIGA#compile(int)}) keep 8 or 16 bit codes of the counts packed with the languages
+ * into one int per entry, weights of the codes are taken from small tables of every language.
+ *
+ * Thread safety: instances are immutable snapshots of the model. All the state is assigned in the constructor
+ * to final fields and never changed afterwards, classification only reads it and keeps the intermediate
+ * results in local variables. So one instance can be shared by any number of threads without locks or copies,
+ * and training of the source {@link LIGA} instance does not affect it
+ */
+public final class CompiledLIGA {
+
+    // confidence threshold (if lower - language is still UNKNOWN)
+    private final double threshold;
+    // max search depth
+    private final int maxSearchDepth;
+    // flag of model, if true - logLIGA, false - LIGA
+    private final boolean logLIGA;
+    // preprocessing of the raw messages, the same as of the training
+    private final Tokenizer tokenizer;
+    // ngram dictionary (ngram -> id)
+    private final NgramVocabulary vocabulary;
+    // language codes, indexed by language
+    private final String[] languages;
+    // weights of zero node and edge counts, indexed by language
+    private final double[] nodeZero;
+    private final double[] edgeZero;
+    // node weights of ngram id are nodeWeights[nodeOffsets[id] .. nodeOffsets[id + 1]), nodeLangs - their languages
+    private final int[] nodeOffsets;
+    private final int[] nodeLangs;
+    private final double[] nodeWeights;
+    // edges of ngram id are edgeTargets[edgeOffsets[id] .. edgeOffsets[id + 1]), targets are sorted
+    private final int[] edgeOffsets;
+    private final int[] edgeTargets;
+    // weights of edge i are edgeWeights[edgeWeightOffsets[i] .. edgeWeightOffsets[i + 1]), edgeLangs - their languages
+    private final int[] edgeWeightOffsets;
+    private final int[] edgeLangs;
+    private final double[] edgeWeights;
+    // quantized model: code length (0 - not quantized), entries (language << codeBits | code) of nodes and edges
+    // instead of languages and weights, weights of the codes are xxxTable[language][code]
+    private final int codeBits;
+    private final int[] nodeCodes;
+    private final double[][] nodeTable;
+    private final int[] edgeCodes;
+    private final double[][] edgeTable;
+    // max gain of ngram over all languages (max node weight + max weight of its edges), indexed by ngram id
+    private final double[] ngramGains;
+    // unique version of the model, for the classification cache
+    private final long version = ClassificationCache.nextVersion();
+
+    CompiledLIGA(double threshold, int maxSearchDepth, boolean logLIGA, Tokenizer tokenizer, NgramVocabulary vocabulary,
+                 String[] languages, double[] nodeZero, double[] edgeZero,
+                 int[] nodeOffsets, int[] nodeLangs, double[] nodeWeights,
+                 int[] edgeOffsets, int[] edgeTargets, int[] edgeWeightOffsets, int[] edgeLangs, double[] edgeWeights) {
+        this(threshold, maxSearchDepth, logLIGA, tokenizer, vocabulary, languages, nodeZero, edgeZero,
+                nodeOffsets, nodeLangs, nodeWeights, edgeOffsets, edgeTargets, edgeWeightOffsets, edgeLangs, edgeWeights,
+                0, null, null, null, null);
+    }
+
+    CompiledLIGA(double threshold, int maxSearchDepth, boolean logLIGA, Tokenizer tokenizer, NgramVocabulary vocabulary,
+                 String[] languages, double[] nodeZero, double[] edgeZero, int codeBits,
+                 int[] nodeOffsets, int[] nodeCodes, double[][] nodeTable,
+                 int[] edgeOffsets, int[] edgeTargets, int[] edgeWeightOffsets, int[] edgeCodes, double[][] edgeTable) {
+        this(threshold, maxSearchDepth, logLIGA, tokenizer, vocabulary, languages, nodeZero, edgeZero,
+                nodeOffsets, null, null, edgeOffsets, edgeTargets, edgeWeightOffsets, null, null,
+                codeBits, nodeCodes, nodeTable, edgeCodes, edgeTable);
+    }
+
+    private CompiledLIGA(double threshold, int maxSearchDepth, boolean logLIGA, Tokenizer tokenizer, NgramVocabulary vocabulary,
+                         String[] languages, double[] nodeZero, double[] edgeZero,
+                         int[] nodeOffsets, int[] nodeLangs, double[] nodeWeights,
+                         int[] edgeOffsets, int[] edgeTargets, int[] edgeWeightOffsets, int[] edgeLangs, double[] edgeWeights,
+                         int codeBits, int[] nodeCodes, double[][] nodeTable, int[] edgeCodes, double[][] edgeTable) {
+        this.threshold = threshold;
+        this.maxSearchDepth = maxSearchDepth;
+        this.logLIGA = logLIGA;
+        this.tokenizer = tokenizer;
+        this.vocabulary = vocabulary;
+        this.languages = languages;
+        this.nodeZero = nodeZero;
+        this.edgeZero = edgeZero;
+        this.nodeOffsets = nodeOffsets;
+        this.nodeLangs = nodeLangs;
+        this.nodeWeights = nodeWeights;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.edgeWeightOffsets = edgeWeightOffsets;
+        this.edgeLangs = edgeLangs;
+        this.edgeWeights = edgeWeights;
+        this.codeBits = codeBits;
+        this.nodeCodes = nodeCodes;
+        this.nodeTable = nodeTable;
+        this.edgeCodes = edgeCodes;
+        this.edgeTable = edgeTable;
+        this.ngramGains = ngramGains();
+    }
+
+    /**
+     * Max gains of every ngram, see {@link Scoring#isDecided}
+     */
+    private double[] ngramGains() {
+        // weights of zero counts are added for languages which are present only on one side (node or edge)
+        double zeroNode = 0d;
+        double zeroEdge = 0d;
+        for (int lang = 0; lang < languages.length; lang++) {
+            zeroNode = Scoring.maxWeight(zeroNode, nodeZero[lang]);
+            zeroEdge = Scoring.maxWeight(zeroEdge, edgeZero[lang]);
+        }
+        int mask = (1 << codeBits) - 1;
+        double[] gains = new double[nodeOffsets.length - 1];
+        for (int id = 0; id < gains.length; id++) {
+            double maxNode = zeroNode;
+            for (int i = nodeOffsets[id]; i < nodeOffsets[id + 1]; i++)
+                maxNode = Scoring.maxWeight(maxNode, codeBits > 0
+                        ? nodeTable[nodeCodes[i] >>> codeBits][nodeCodes[i] & mask] : nodeWeights[i]);
+            double maxEdge = zeroEdge;
+            for (int i = edgeWeightOffsets[edgeOffsets[id]]; i < edgeWeightOffsets[edgeOffsets[id + 1]]; i++)
+                maxEdge = Scoring.maxWeight(maxEdge, codeBits > 0
+                        ? edgeTable[edgeCodes[i] >>> codeBits][edgeCodes[i] & mask] : edgeWeights[i]);
+            gains[id] = maxNode + maxEdge;
+        }
+        return gains;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getMaxSearchDepth() {
+        return maxSearchDepth;
+    }
+
+    public boolean isLogLIGA() {
+        return logLIGA;
+    }
+
+    /**
+     * number of ngrams (nodes) in the model
+     */
+    public int getNodesNumber() {
+        return vocabulary.size();
+    }
+
+    /**
+     * number of edges in the model
+     */
+    public int getEdgesNumber() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * unique version of the model (see ClassificationCache)
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * tokenizer of the raw messages (classifyXxxText), the same as of the model
+     */
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * code length of the quantized model, bits (0 - not quantized)
+     */
+    public int getCodeBits() {
+        return codeBits;
+    }
+
+    /**
+     * Memory of the graph arrays, bytes (vocabulary is not included)
+     */
+    public long estimateMemory() {
+        long ints = (long) nodeOffsets.length + edgeOffsets.length + edgeTargets.length + edgeWeightOffsets.length;
+        long doubles = 0;
+        if (codeBits > 0) {
+            ints += nodeCodes.length + edgeCodes.length;
+            for (int lang = 0; lang < languages.length; lang++)
+                doubles += nodeTable[lang].length + edgeTable[lang].length;
+        } else {
+            ints += nodeLangs.length + edgeLangs.length;
+            doubles += nodeWeights.length + edgeWeights.length;
+        }
+        doubles += ngramGains.length;
+        return 4 * ints + 8 * doubles;
+    }
+
+    /**
+     * Classifies a message and returns the most probable language
+     *
+     * @param doc         original document
+     * @param ngramLength n
+     */
+    public String classifyMostProbable(String doc, int ngramLength) {
+        return classifyMostProbable(new NgramCursor(doc, ngramLength), null);
+    }
+
+    /**
+     * Preprocesses a raw message and returns the most probable language, the same as
+     * classifyMostProbable(getTokenizer().clean(text), ngramLength) without intermediate strings
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public String classifyMostProbableText(String text, int ngramLength) {
+        return classifyMostProbable(NgramCursor.preprocessed(tokenizer, text, ngramLength), null);
+    }
+
+    /**
+     * Returns the most probable language of the prepared document, the same as
+     * classifyMostProbable(text.getDoc(), text.getNgramLength()) without preprocessing
+     *
+     * @param text prepared document
+     */
+    public String classifyMostProbable(PreparedText text) {
+        text.checkTokenizer(tokenizer);
+        return classifyMostProbable(null, text.ngramIds(vocabulary));
+    }
+
+    /**
+     * @param ngrams cursor over document ngrams (not used if ids are known)
+     * @param ids    ngram ids of the prepared text (null - ngrams are looked up)
+     */
+    private String classifyMostProbable(NgramCursor ngrams, int[] ids) {
+        if (!modelIsNotEmpty())
+            return "EMPTY MODEL";
+        double[] scores = new double[languages.length];
+        boolean[] scored = new boolean[languages.length];
+        if (ids != null)
+            calcScores(ids, scores, scored);
+        else
+            calcScores(ngrams, scores, scored);
+        return Scoring.bestLanguage(scores, scored, languages, threshold);
+    }
+
+    /**
+     * Classifies a message and returns the most probable language, stops as soon as the leading language
+     * can not be overtaken by the remaining ngrams (the language is the same as of classifyMostProbable)
+     *
+     * @param doc         original document
+     * @param ngramLength n
+     * @return pair of the most probable language and the number of counted ngrams
+     */
+    public MutablePair<String, Integer> classifyMostProbableEarly(String doc, int ngramLength) {
+        if (!modelIsNotEmpty())
+            return new MutablePair<>("EMPTY MODEL", 0);
+        double[] scores = new double[languages.length];
+        boolean[] scored = new boolean[languages.length];
+        int counted = calcScoresEarly(new NgramCursor(doc, ngramLength), scores, scored);
+        return new MutablePair<>(Scoring.bestLanguage(scores, scored, languages, threshold), counted);
+    }
+
+    /**
+     * Gets scores for a given document
+     *
+     * @param doc         document
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAll(String doc, int ngramLength) {
+        return classifyAll(new NgramCursor(doc, ngramLength), null);
+    }
+
+    /**
+     * Preprocesses a raw message and gets its scores, the same as
+     * classifyAll(getTokenizer().clean(text), ngramLength) without intermediate strings
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAllText(String text, int ngramLength) {
+        return classifyAll(NgramCursor.preprocessed(tokenizer, text, ngramLength), null);
+    }
+
+    /**
+     * Gets scores of the prepared document, the same as classifyAll(text.getDoc(), text.getNgramLength())
+     * without preprocessing
+     *
+     * @param text prepared document
+     */
+    public Map<String, Double> classifyAll(PreparedText text) {
+        text.checkTokenizer(tokenizer);
+        return classifyAll(null, text.ngramIds(vocabulary));
+    }
+
+    /**
+     * @param ngrams cursor over document ngrams (not used if ids are known)
+     * @param ids    ngram ids of the prepared text (null - ngrams are looked up)
+     */
+    private Map<String, Double> classifyAll(NgramCursor ngrams, int[] ids) {
+        if (!modelIsNotEmpty())
+            return new HashMap<>();
+        double[] scores = new double[languages.length];
+        boolean[] scored = new boolean[languages.length];
+        if (ids != null)
+            calcScores(ids, scores, scored);
+        else
+            calcScores(ngrams, scores, scored);
+        return Scoring.toMap(scores, scored, languages);
+    }
+
+    /**
+     * Matches path of document ngrams against the graph and calculates scores
+     *
+     * @param ngrams ngrams of document
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     */
+    private void calcScores(NgramCursor ngrams, double[] scores, boolean[] scored) {
+        // every ngram up to max search depth: count the node and the edge to the next ngram,
+        // ngram i is counted when ngram i + 1 (target of its edge) is known
+        int last = Math.min(ngrams.count() - 1, maxSearchDepth);
+        int source = -1;
+        for (int i = 0; i <= last + 1 && ngrams.next(); i++) {
+            int target = vocabulary.idOf(ngrams);
+            if (i > 0)
+                countNgram(source, target, scores, scored);
+            source = target;
+        }
+        // there is no edge after the last node
+        if (last == ngrams.count() - 1 && last >= 0)
+            countNgram(source, -1, scores, scored);
+    }
+
+    /**
+     * Same as {@link #calcScores}, but stops when the best language is known. Ids of the ngrams are looked up first,
+     * so the gains of the ngrams which are not counted yet are bounded by the max gains of these very ngrams,
+     * and the ngrams with the biggest gains are counted first
+     *
+     * @param ngrams ngrams of document
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     * @return number of counted ngrams
+     */
+    private int calcScoresEarly(NgramCursor ngrams, double[] scores, boolean[] scored) {
+        int last = Math.min(ngrams.count() - 1, maxSearchDepth);
+        int[] ids = new int[last + 1];
+        int count = 0;
+        while (count <= last && ngrams.next())
+            ids[count++] = vocabulary.idOf(ngrams);
+        // edge target of the last counted ngram (there is no edge after the last node)
+        int next = last < ngrams.count() - 1 && ngrams.next() ? vocabulary.idOf(ngrams) : -1;
+        double[] remaining = new double[count + 1];
+        int[] order = Scoring.countingOrder(ids, count, ngramGains, remaining);
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            countNgram(ids[i], i + 1 < count ? ids[i + 1] : next, scores, scored);
+            // scores are not higher than the counted gains, the leader can not be ahead of the remaining ones before
+            if (remaining[k + 1] * 2 < remaining[0] && Scoring.isDecided(scores, scored, remaining[k + 1], threshold))
+                return k + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Same as {@link #calcScores(NgramCursor, double[], boolean[])}, ngram ids of the document are already known
+     * (prepared text)
+     *
+     * @param ids    ngram ids of the document (-1 for unknown ngram)
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     */
+    private void calcScores(int[] ids, double[] scores, boolean[] scored) {
+        int last = Math.min(ids.length - 1, maxSearchDepth);
+        for (int i = 0; i <= last; i++)
+            countNgram(ids[i], i + 1 < ids.length ? ids[i + 1] : -1, scores, scored);
+    }
+
+    /**
+     * Adds weights of the node and of the edge to the next ngram to the language scores
+     *
+     * @param source ngram id (-1 for unknown ngram)
+     * @param target next ngram id (-1 for unknown or absent ngram)
+     * @param scores scores, indexed by language
+     * @param scored flags of languages which got any counts
+     */
+    private void countNgram(int source, int target, double[] scores, boolean[] scored) {
+        // unknown ngrams and their edges are not counted
+        if (source == -1)
+            return;
+        int edge = findEdge(source, target);
+        if (codeBits > 0) {
+            Scoring.addCodes(scores, scored, codeBits,
+                    nodeCodes, nodeTable, nodeOffsets[source], nodeOffsets[source + 1],
+                    edgeCodes, edgeTable, edge == -1 ? 0 : edgeWeightOffsets[edge], edge == -1 ? 0 : edgeWeightOffsets[edge + 1],
+                    nodeZero, edgeZero);
+            return;
+        }
+        Scoring.addWeights(scores, scored,
+                nodeLangs, nodeWeights, nodeOffsets[source], nodeOffsets[source + 1],
+                edgeLangs, edgeWeights, edge == -1 ? 0 : edgeWeightOffsets[edge], edge == -1 ? 0 : edgeWeightOffsets[edge + 1],
+                nodeZero, edgeZero);
+    }
+
+    /**
+     * returns index of the edge or -1 if there is no such edge
+     *
+     * @param source source ngram id
+     * @param target target ngram id (-1 for unknown)
+     */
+    private int findEdge(int source, int target) {
+        if (target == -1)
+            return -1;
+        int lo = edgeOffsets[source];
+        int hi = edgeOffsets[source + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midTarget = edgeTargets[mid];
+            if (midTarget < target)
+                lo = mid + 1;
+            else if (midTarget > target)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private boolean modelIsNotEmpty() {
+        return vocabulary.size() > 0 && languages.length > 0;
+    }
+}
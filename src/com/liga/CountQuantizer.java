@@ -0,0 +1,178 @@
+/*
+ * Title: CountQuantizer.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Quantization of node or edge counts into 8 or 16 bit codes with a dequantization table per language.
+ * If a language has not more distinct counts than codes, every distinct count gets its own code (no loss).
+ * Otherwise counts are grouped into buckets of equal width on log scale (small counts stay exact,
+ * large ones share codes with their neighbours), the value of a bucket is the geometric mean of its counts
+ */
+final class CountQuantizer {
+
+    private final int bits;
+    // max count of every code, ascending, indexed by language
+    private final int[][] bounds;
+    // dequantized count of every code, indexed by language
+    private final int[][] values;
+
+    /**
+     * @param bits   code length, 8 or 16
+     * @param bounds max counts of the codes, indexed by language
+     * @param values dequantized counts of the codes, indexed by language
+     */
+    private CountQuantizer(int bits, int[][] bounds, int[][] values) {
+        this.bits = bits;
+        this.bounds = bounds;
+        this.values = values;
+    }
+
+    /**
+     * Builds the tables for the given counts
+     *
+     * @param counts packed counts of nodes or edges
+     * @param langs  number of languages
+     * @param bits   code length, 8 or 16
+     */
+    static CountQuantizer of(List<int[]> counts, int langs, int bits) {
+        checkBits(bits);
+        // counts of every language, sorted
+        int[] sizes = new int[langs];
+        for (int[] entry : counts)
+            for (int i = 0; i < entry.length; i += 2)
+                sizes[entry[i]]++;
+        int[][] byLanguage = new int[langs][];
+        for (int lang = 0; lang < langs; lang++)
+            byLanguage[lang] = new int[sizes[lang]];
+        Arrays.fill(sizes, 0);
+        for (int[] entry : counts)
+            for (int i = 0; i < entry.length; i += 2)
+                byLanguage[entry[i]][sizes[entry[i]]++] = entry[i + 1];
+
+        int[][] bounds = new int[langs][];
+        int[][] values = new int[langs][];
+        for (int lang = 0; lang < langs; lang++) {
+            Arrays.sort(byLanguage[lang]);
+            buildTable(byLanguage[lang], 1 << bits, lang, bounds, values);
+        }
+        return new CountQuantizer(bits, bounds, values);
+    }
+
+    /**
+     * Tables of the saved model, codes are the same as the values (see {@link #values(int)})
+     *
+     * @param bits   code length, 8 or 16
+     * @param values dequantized counts of the codes (ascending), indexed by language
+     */
+    static CountQuantizer of(int bits, int[][] values) {
+        checkBits(bits);
+        return new CountQuantizer(bits, values, values);
+    }
+
+    private static void checkBits(int bits) {
+        if (bits != 8 && bits != 16)
+            throw new IllegalArgumentException("Counts are quantized to 8 or 16 bits, not " + bits);
+    }
+
+    /**
+     * builds the table of one language
+     *
+     * @param sorted sorted counts of the language
+     * @param codes  number of codes
+     * @param lang   language
+     * @param bounds max counts of the codes (output)
+     * @param values dequantized counts of the codes (output)
+     */
+    private static void buildTable(int[] sorted, int codes, int lang, int[][] bounds, int[][] values) {
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                distinct++;
+        int[] bound = new int[Math.min(distinct, codes)];
+        int[] value = new int[bound.length];
+        if (distinct <= codes) {
+            int code = 0;
+            for (int i = 0; i < sorted.length; i++)
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    bound[code++] = sorted[i];
+            values[lang] = bounds[lang] = bound;
+            return;
+        }
+
+        // buckets of equal width on log scale, counts are shifted to start from 1
+        long min = sorted[0];
+        double width = Math.log(sorted[sorted.length - 1] - min + 1) / codes;
+        int code = 0;
+        int from = 0;
+        while (from < sorted.length) {
+            int bucket = bucketOf(sorted[from], min, width, codes);
+            int to = from;
+            double logSum = 0;
+            while (to < sorted.length && bucketOf(sorted[to], min, width, codes) == bucket)
+                logSum += Math.log(sorted[to++] - min + 1);
+            bound[code] = sorted[to - 1];
+            value[code] = (int) Math.max(sorted[from], Math.min(sorted[to - 1],
+                    Math.round(Math.exp(logSum / (to - from)) + min - 1)));
+            code++;
+            from = to;
+        }
+        bounds[lang] = Arrays.copyOf(bound, code);
+        values[lang] = Arrays.copyOf(value, code);
+    }
+
+    private static int bucketOf(int count, long min, double width, int codes) {
+        return Math.min(codes - 1, (int) (Math.log(count - min + 1) / width));
+    }
+
+    /**
+     * code length, bits
+     */
+    int bits() {
+        return bits;
+    }
+
+    /**
+     * code of the count (the first code which covers it)
+     *
+     * @param lang  language
+     * @param count count
+     */
+    int code(int lang, int count) {
+        int code = Arrays.binarySearch(bounds[lang], count);
+        return Math.min(code >= 0 ? code : -code - 1, bounds[lang].length - 1);
+    }
+
+    /**
+     * dequantized count of the code
+     *
+     * @param lang language
+     * @param code code
+     */
+    int value(int lang, int code) {
+        return values[lang][code];
+    }
+
+    /**
+     * dequantized counts of all the codes of the language (ascending)
+     *
+     * @param lang language
+     */
+    int[] values(int lang) {
+        return values[lang];
+    }
+
+    /**
+     * number of languages
+     */
+    int languages() {
+        return values.length;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Title: JsonModelScanner.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds boundaries of the fields of JSON model (UTF-8) without parsing the values:
+ * only brackets, strings and commas are recognized. Used to split the graph into chunks of ngrams
+ * which are parsed in parallel. Positions are byte offsets in the buffer
+ */
+final class JsonModelScanner {
+
+    private final ByteBuffer bytes;
+    private final int limit;
+
+    /**
+     * @param bytes model bytes
+     */
+    JsonModelScanner(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.limit = bytes.limit();
+    }
+
+    /**
+     * Fields of the object: names and value boundaries
+     *
+     * @param start position of the opening bracket of the object (after whitespace)
+     * @return list of {name start, value start, value end} triples (end is exclusive)
+     */
+    List<int[]> fields(int start) throws IOException {
+        int p = skipWhitespace(start);
+        expect(p, '{');
+        p++;
+        List<int[]> fields = new ArrayList<>();
+        while (true) {
+            p = skipWhitespace(p);
+            if (byteAt(p) == '}')
+                return fields;
+            int name = p;
+            p = skipWhitespace(skipString(p));
+            expect(p, ':');
+            int value = skipWhitespace(p + 1);
+            p = skipValue(value);
+            fields.add(new int[]{name, value, p});
+            p = skipWhitespace(p);
+            if (byteAt(p) == ',')
+                p++;
+            else
+                expect(p, '}');
+        }
+    }
+
+    /**
+     * name of the field (the string which starts at the position)
+     *
+     * @param start position of the opening quote
+     */
+    String name(int start) throws IOException {
+        int end = skipString(start);
+        byte[] raw = new byte[end - start - 2];
+        for (int i = 0; i < raw.length; i++)
+            raw[i] = bytes.get(start + 1 + i);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the fields [from, to) as a separate JSON object
+     *
+     * @param fields fields of an object
+     * @param from   first field (inclusive)
+     * @param to     last field (exclusive)
+     */
+    byte[] object(List<int[]> fields, int from, int to) {
+        int start = fields.get(from)[0];
+        int end = fields.get(to - 1)[2];
+        byte[] out = new byte[end - start + 2];
+        out[0] = '{';
+        for (int i = start; i < end; i++)
+            out[i - start + 1] = bytes.get(i);
+        out[out.length - 1] = '}';
+        return out;
+    }
+
+    /**
+     * Copies the value
+     *
+     * @param start first byte (inclusive)
+     * @param end   last byte (exclusive)
+     */
+    byte[] value(int start, int end) {
+        byte[] out = new byte[end - start];
+        for (int i = start; i < end; i++)
+            out[i - start] = bytes.get(i);
+        return out;
+    }
+
+    /**
+     * first position after whitespace
+     */
+    int skipWhitespace(int p) {
+        while (p < limit) {
+            byte b = bytes.get(p);
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+                break;
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * first position after the string
+     *
+     * @param p position of the opening quote
+     */
+    private int skipString(int p) throws IOException {
+        expect(p, '"');
+        p++;
+        while (true) {
+            byte b = byteAt(p++);
+            if (b == '\\')
+                p++;
+            else if (b == '"')
+                return p;
+        }
+    }
+
+    /**
+     * first position after the value (object, array, string or primitive)
+     *
+     * @param p first position of the value
+     */
+    private int skipValue(int p) throws IOException {
+        byte b = byteAt(p);
+        if (b == '"')
+            return skipString(p);
+        if (b != '{' && b != '[') {
+            // number, true, false, null
+            while (p < limit && (b = bytes.get(p)) != ',' && b != '}' && b != ']'
+                    && b != ' ' && b != '\t' && b != '\n' && b != '\r')
+                p++;
+            return p;
+        }
+        int depth = 0;
+        while (true) {
+            b = byteAt(p);
+            if (b == '"') {
+                p = skipString(p);
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0)
+                    return p + 1;
+            }
+            p++;
+        }
+    }
+
+    private byte byteAt(int p) throws IOException {
+        if (p >= limit)
+            throw new IOException("Unexpected end of model");
+        return bytes.get(p);
+    }
+
+    private void expect(int p, char c) throws IOException {
+        if (byteAt(p) != c)
+            throw new IOException("Malformed model: '" + c + "' expected at " + p);
+    }
+}
@@ -7,20 +7,43 @@
 
 package com.liga;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.*;
 
 import com.fasterxml.jackson.core.*;
+import com.liga.util.LongIntHashMap;
+import com.liga.util.PagedList;
+import com.liga.util.ModelFiles;
+import com.liga.util.VarIntInputStream;
+import com.liga.util.VarIntOutputStream;
 import org.apache.commons.lang3.tuple.MutablePair;
 
 /**
  * Main class of language identification for short texts (LIGA and logLIGA).
- * Use it to train and classify texts, load and save models
+ * Use it to train and classify texts, load and save models.
+ *
+ * Instances are not thread-safe: training, loading and classification must not run concurrently.
+ * To classify in many threads, {@link #compile()} the model and share the immutable {@link CompiledLIGA} snapshot
  */
 public class LIGA {
 
+    // binary model format: "LIGB" magic and version of the layout
+    static final int BINARY_MAGIC = 0x4C494742;
+    static final int BINARY_VERSION = 1;
+    static final int BINARY_QUANTIZED_VERSION = 2;
+    static final int BINARY_TOKENIZER_VERSION = 3;
+
     private boolean debug = false;
 
     // confidence threshold (if lower - language is still UNKNOWN)
@@ -29,10 +52,47 @@ public class LIGA {
     private int maxSearchDepth = 1000;
     // flag of model, if true - logLIGA, false - LIGA
     private boolean logLIGA = true;
-    // tree maps - we don't know how many items, natural order -> more readable, adequate memory distribution, O(log(n))
-    private TreeMap<String, TreeMap<String, Integer>> nodes = new TreeMap<>();
-    private TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> edges = new TreeMap<>();
-    private TreeMap<String, MutablePair<Integer, Integer>> counter = new TreeMap<>();
+    // number of threads for dataset training (1 - sequential)
+    private int trainingThreads = 1;
+    // preprocessing of the documents, saved with the model
+    private Tokenizer tokenizer = Tokenizer.forName(Tokenizer.FULL);
+    // ngram dictionary, graph is stored by ngram ids
+    private NgramVocabulary vocabulary = new NgramVocabulary();
+    // language codes, counts and scores are stored by language indices
+    private LanguageRegistry languages = new LanguageRegistry();
+    // node counts per language (packed, see LangCounts), indexed by ngram id
+    private PagedList<int[]> nodes = new PagedList<>();
+    // edge ids, keys are packed (source id, target id) pairs
+    private LongIntHashMap edgeIds = new LongIntHashMap();
+    // edge counts per language (packed, see LangCounts), indexed by edge id
+    private PagedList<int[]> edges = new PagedList<>();
+    // packed (source id, target id) pairs, indexed by edge id
+    private long[] edgeKeys = new long[64];
+    // edge keys are shared with the model this one is a snapshot of (it keeps appending to them)
+    private boolean sharedEdgeKeys = false;
+    // total numbers of nodes and edges, indexed by language
+    private int[] nodesTotal = new int[8];
+    private int[] edgesTotal = new int[8];
+    // logs of the totals (logLIGA), computed on demand, null when the totals changed
+    private double[] logNodesTotal = null;
+    private double[] logEdgesTotal = null;
+    // max gain of ngram over all languages (early exit), indexed by ngram id, computed on demand, null when the counts changed
+    private double[] ngramGains = null;
+    // node and edge counts shared with snapshots, they are copied before they are changed in place (copy-on-write)
+    private BitSet sharedNodes = new BitSet();
+    private BitSet sharedEdges = new BitSet();
+    // training, merging and snapshots of the model are mutually exclusive
+    private final Object modelLock = new Object();
+    // version of the model, changes with every change of the model (results of older versions are not taken from cache)
+    private volatile long version = ClassificationCache.nextVersion();
+    // cache of classification results (null - no cache)
+    private ClassificationCache cache = null;
+    // log of the changes made after the last snapshot (null - no journal), see openJournal
+    private TrainingJournal journal = null;
+    private String snapshotPath;
+    private String journalPath;
+    // journal is compacted on checkpoint when it is longer (bytes, 0 - only by compactJournal)
+    private long journalCompactionBytes;
 
     public double getThreshold() {
         return threshold;
@@ -40,6 +100,7 @@ public class LIGA {
 
     public void setThreshold(double threshold) {
         this.threshold = threshold;
+        changeVersion();
     }
 
     public int getMaxSearchDepth() {
@@ -48,6 +109,7 @@ public class LIGA {
 
     public void setMaxSearchDepth(int maxSearchDepth) {
         this.maxSearchDepth = maxSearchDepth;
+        changeVersion();
     }
 
     public boolean isLogLIGA() {
@@ -56,35 +118,241 @@ public class LIGA {
 
     public void setLogLIGA(boolean logLIGA) {
         this.logLIGA = logLIGA;
+        resetScoringCache();
+    }
+
+    /**
+     * tokenizer of the documents (training and classifyXxxText), loaded models have the tokenizer they were trained with
+     */
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * cache of classification results (null - no cache)
+     */
+    public ClassificationCache getClassificationCache() {
+        return cache;
+    }
+
+    public int getTrainingThreads() {
+        return trainingThreads;
     }
 
+    public void setTrainingThreads(int trainingThreads) {
+        this.trainingThreads = trainingThreads;
+    }
+
+    public long getJournalCompactionBytes() {
+        return journalCompactionBytes;
+    }
+
+    public void setJournalCompactionBytes(long journalCompactionBytes) {
+        this.journalCompactionBytes = journalCompactionBytes;
+    }
+
+    /**
+     * returns a copy of nodes (ngram -> language -> count)
+     */
     public TreeMap<String, TreeMap<String, Integer>> getNodes() {
-        return nodes;
+        TreeMap<String, TreeMap<String, Integer>> out = new TreeMap<>();
+        for (int id = 0; id < vocabulary.size(); id++)
+            out.put(vocabulary.get(id), toMap(nodes.get(id)));
+        return out;
     }
 
+    /**
+     * returns a copy of edges (source ngram -> target ngram -> language -> count)
+     */
     public TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> getEdges() {
-        return edges;
+        TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> out = new TreeMap<>();
+        for (int id = 0; id < vocabulary.size(); id++)
+            out.put(vocabulary.get(id), new TreeMap<String, TreeMap<String, Integer>>());
+        for (int edge = 0; edge < edges.size(); edge++) {
+            String source = vocabulary.get(sourceOf(edgeKeys[edge]));
+            String target = vocabulary.get(targetOf(edgeKeys[edge]));
+            out.get(source).put(target, toMap(edges.get(edge)));
+        }
+        return out;
     }
 
+    /**
+     * returns a copy of counter (language -> total number of nodes and edges)
+     */
     public TreeMap<String, MutablePair<Integer, Integer>> getCounter() {
-        return counter;
+        TreeMap<String, MutablePair<Integer, Integer>> out = new TreeMap<>();
+        for (int lang = 0; lang < languages.size(); lang++)
+            out.put(languages.get(lang), new MutablePair<>(nodesTotal[lang], edgesTotal[lang]));
+        return out;
+    }
+
+    /**
+     * converts packed counts to map (language -> count)
+     *
+     * @param counts packed counts
+     */
+    private TreeMap<String, Integer> toMap(int[] counts) {
+        TreeMap<String, Integer> out = new TreeMap<>();
+        for (int i = 0; i < counts.length; i += 2)
+            out.put(languages.get(counts[i]), counts[i + 1]);
+        return out;
     }
 
     public LIGA(LIGABuilder builder){
         this.threshold = builder.threshold;
         this.maxSearchDepth = builder.maxSearchDepth;
         this.logLIGA = builder.logLIGA;
+        this.trainingThreads = builder.trainingThreads;
+        this.tokenizer = builder.tokenizer;
+        this.cache = builder.cache;
+        this.journalCompactionBytes = builder.journalCompactionBytes;
     }
 
     /**
-     * Adds the loaded dataset to model
+     * Adds the loaded dataset to model (in parallel if more than one training thread is set)
      *
-     * @param dataset
+     * @param dataset dataset, pairs of language and text
+     * @param ngramLength length of ngram
      */
     public void addDataset(List<MutablePair<String, String>> dataset, int ngramLength){
-        for (MutablePair<String, String> entry: dataset){
-            addDocument(entry.right, entry.left, ngramLength);
+        if (trainingThreads > 1 && dataset.size() > 1) {
+            addDatasetParallel(dataset, ngramLength);
+        } else {
+            for (MutablePair<String, String> entry: dataset){
+                addDocument(entry.right, entry.left, ngramLength);
+            }
+        }
+    }
+
+    /**
+     * Adds the loaded dataset to model in parallel.
+     * Dataset is split into consecutive chunks, every chunk is preprocessed and counted into its own partial graph,
+     * partial graphs are merged in chunk order. Ngrams, edges and languages get the ids in order of their first
+     * appearance, exactly as in sequential training, so the resulting model is identical to the sequential one
+     *
+     * @param dataset dataset, pairs of language and text
+     * @param ngramLength length of ngram
+     */
+    private void addDatasetParallel(final List<MutablePair<String, String>> dataset, final int ngramLength) {
+        // a few chunks per thread for better load balancing
+        int chunks = Math.min(dataset.size(), trainingThreads * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(trainingThreads);
+        try {
+            List<Future<LIGA>> partials = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                final int from = (int) ((long) dataset.size() * c / chunks);
+                final int to = (int) ((long) dataset.size() * (c + 1) / chunks);
+                partials.add(pool.submit(new Callable<LIGA>() {
+                    @Override
+                    public LIGA call() {
+                        LIGA partial = new LIGA(new LIGABuilder(threshold).setTokenizer(tokenizer));
+                        for (MutablePair<String, String> entry : dataset.subList(from, to))
+                            partial.addDocument(entry.right, entry.left, ngramLength);
+                        return partial;
+                    }
+                }));
+            }
+            // all chunks are counted before the model is touched, failed training leaves it unchanged
+            List<LIGA> counted = new ArrayList<>(chunks);
+            for (Future<LIGA> partial : partials)
+                counted.add(partial.get());
+            for (LIGA partial : counted)
+                mergeModel(partial);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel training was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel training failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds another model (node, edge and total counts of every language) to this one, e.g. to combine models
+     * trained on separate shards of a corpus. The other model is not changed
+     *
+     * @param other model to add
+     */
+    public void merge(LIGA other) {
+        if (other == this)
+            throw new IllegalArgumentException("Model can not be merged with itself");
+        // counts of different preprocessing can not be summed, empty model takes the tokenizer of the other one
+        if (!other.tokenizer.equals(tokenizer)) {
+            if (modelIsNotEmpty())
+                throw new IllegalArgumentException("Models with different tokenizers can not be merged");
+            tokenizer = other.tokenizer;
         }
+        mergeModel(other);
+    }
+
+    /**
+     * Adds node, edge and total counts of another model to this one
+     *
+     * @param other model to add
+     */
+    private void mergeModel(LIGA other) {
+        synchronized (modelLock) {
+            resetScoringCache();
+            // language and ngram ids of other model -> ids in this model
+            int[] langIds = new int[other.languages.size()];
+            for (int lang = 0; lang < langIds.length; lang++) {
+                langIds[lang] = addLanguage(other.languages.get(lang));
+                nodesTotal[langIds[lang]] += other.nodesTotal[lang];
+                edgesTotal[langIds[lang]] += other.edgesTotal[lang];
+            }
+            int[] ngramIds = new int[other.vocabulary.size()];
+            for (int id = 0; id < ngramIds.length; id++) {
+                ngramIds[id] = internNode(other.vocabulary.get(id));
+                nodes.set(ngramIds[id], mergeCounts(writableNode(ngramIds[id]), other.nodes.get(id), langIds));
+            }
+            for (int edge = 0; edge < other.edges.size(); edge++) {
+                long key = other.edgeKeys[edge];
+                int local = internEdge(ngramIds[sourceOf(key)], ngramIds[targetOf(key)]);
+                edges.set(local, mergeCounts(writableEdge(local), other.edges.get(edge), langIds));
+            }
+            if (journal != null)
+                journalMerge(other, langIds, ngramIds);
+            changeVersion();
+        }
+    }
+
+    /**
+     * Writes counts of the merged model to the journal
+     *
+     * @param other    merged model
+     * @param langIds  language ids of other model -> ids in this model
+     * @param ngramIds ngram ids of other model -> ids in this model
+     */
+    private void journalMerge(LIGA other, int[] langIds, int[] ngramIds) {
+        for (int lang = 0; lang < langIds.length; lang++)
+            journal.totals(langIds[lang], other.nodesTotal[lang], other.edgesTotal[lang]);
+        for (int id = 0; id < ngramIds.length; id++) {
+            int[] counts = other.nodes.get(id);
+            for (int i = 0; i < counts.length; i += 2)
+                journal.node(ngramIds[id], langIds[counts[i]], counts[i + 1]);
+        }
+        for (int edge = 0; edge < other.edges.size(); edge++) {
+            long key = other.edgeKeys[edge];
+            int[] counts = other.edges.get(edge);
+            for (int i = 0; i < counts.length; i += 2)
+                journal.edge(ngramIds[sourceOf(key)], ngramIds[targetOf(key)], langIds[counts[i]], counts[i + 1]);
+        }
+        commitJournal();
+    }
+
+    /**
+     * Adds packed counts of another model
+     *
+     * @param counts packed counts
+     * @param otherCounts packed counts of other model
+     * @param langIds language ids of other model -> ids in this model
+     * @return updated counts
+     */
+    private static int[] mergeCounts(int[] counts, int[] otherCounts, int[] langIds) {
+        for (int i = 0; i < otherCounts.length; i += 2)
+            counts = LangCounts.add(counts, langIds[otherCounts[i]], otherCounts[i + 1]);
+        return counts;
     }
 
     /**
@@ -95,194 +363,418 @@ public class LIGA {
      * @param ngramLength length of ngram
      */
     public void addDocument(String doc, String language, int ngramLength) {
-        // Minor pre-processing
-        doc = Tokenizer.preprocess(doc);
-
-        // get ngrams
-        List<String> ngrams = getNgrams(doc, ngramLength);
+        // Minor pre-processing, ngrams are read from the preprocessed characters directly
+        addDocument(NgramCursor.preprocessed(tokenizer, doc, ngramLength), language);
+    }
 
-        // adds dock if only ngrams exist
-        if (!ngrams.isEmpty()) {
+    /**
+     * Adds the document which is already preprocessed (see PreparedText), it is not tokenized again
+     *
+     * @param text     prepared document
+     * @param language language of the document
+     */
+    public void addDocument(PreparedText text, String language) {
+        text.checkTokenizer(tokenizer);
+        addDocument(text.cursor(), language, text);
+    }
 
-            // Initialize counter for language
-            if (!counter.containsKey(language))
-                counter.put(language, new MutablePair<Integer, Integer>(0, 0));
+    private void addDocument(NgramCursor ngrams, String language) {
+        addDocument(ngrams, language, null);
+    }
 
-            String previousNgram = null;
-            for (String ngram : ngrams) {
-                // Add node
-                addNode(ngram, language);
+    /**
+     * Adds the ngrams of the document, ids of the prepared text (if not null) are taken from it,
+     * only its unknown ngrams are added to the vocabulary
+     *
+     * @param ngrams   cursor over document ngrams
+     * @param language language of the document
+     * @param prepared prepared document (or null)
+     */
+    private void addDocument(NgramCursor ngrams, String language, PreparedText prepared) {
+        // adds dock if only ngrams exist
+        if (ngrams.count() > 0) {
+            // preprocessing is done, the model is changed under the lock (see snapshot)
+            synchronized (modelLock) {
+                // Initialize counter for language
+                int lang = addLanguage(language);
+                resetScoringCache();
+
+                // ngram ids of the document, for the journal
+                int[] path = journal != null ? new int[ngrams.count()] : null;
+                // ids of the prepared text are looked up under the lock, the vocabulary does not change meanwhile
+                int[] known = prepared != null ? prepared.ngramIds(vocabulary) : null;
+
+                int previousId = -1;
+                while (ngrams.next()) {
+                    // Add node
+                    int id = known != null && known[ngrams.offset()] != -1 ? known[ngrams.offset()] : internNode(ngrams);
+                    addNode(id, lang);
+
+                    // See if we have to add an edge
+                    if (previousId != -1) {
+                        // Add edge
+                        addEdge(previousId, id, lang);
+                    }
 
-                // See if we have to add an edge
-                if (previousNgram != null) {
-                    // Add edge
-                    addEdge(previousNgram, ngram, language);
+                    if (path != null)
+                        path[ngrams.offset()] = id;
+                    previousId = id;
                 }
 
-                previousNgram = ngram;
+                if (journal != null) {
+                    journal.document(lang, path, path.length);
+                    commitJournal();
+                }
+                // classifications which started during the change are not cached as of the new version
+                changeVersion();
             }
         }
     }
 
     /**
-     * gets ngrams of the string
+     * Point-in-time copy of the model, it can be saved, compiled or trained independently while this model
+     * keeps training in another thread (addDocument, addDataset and merge wait only while the copy is made).
+     * The copy is cheap, nothing of the size of the model is copied: the ngram and edge tables are shared views
+     * (this model only appends to them), node and edge lists share their pages and the count arrays are shared,
+     * every model copies a page or a count array only before it changes it (copy-on-write)
+     */
+    public LIGA snapshot() {
+        synchronized (modelLock) {
+            LIGA copy = new LIGA(new LIGABuilder(threshold).setMaxSearchDepth(maxSearchDepth)
+                    .setLogLIGA(logLIGA).setTrainingThreads(trainingThreads).setTokenizer(tokenizer)
+                    .setJournalCompactionBytes(journalCompactionBytes));
+            copy.debug = debug;
+            copy.vocabulary = vocabulary.share();
+            copy.languages = languages.copy();
+            copy.nodes = nodes.share();
+            copy.edgeIds = edgeIds.share(edges.size());
+            copy.edges = edges.share();
+            copy.edgeKeys = edgeKeys;
+            copy.sharedEdgeKeys = true;
+            copy.nodesTotal = Arrays.copyOf(nodesTotal, nodesTotal.length);
+            copy.edgesTotal = Arrays.copyOf(edgesTotal, edgesTotal.length);
+            sharedNodes.set(0, nodes.size());
+            sharedEdges.set(0, edges.size());
+            copy.sharedNodes.set(0, nodes.size());
+            copy.sharedEdges.set(0, edges.size());
+            return copy;
+        }
+    }
+
+    /**
+     * counts of the node which can be changed in place (copied first if they are shared with a snapshot)
      *
-     * @param doc         original doc
-     * @param ngramLength ngram length
+     * @param id id of the node
      */
-    private List<String> getNgrams(String doc, int ngramLength) {
-        List<String> out = new LinkedList<>();
-        // number of ngrams
-        int num = doc.length() - (ngramLength - 1);
-        // if ngrams available
-        if (num > 0) {
-            for (int i = 0; i < num; i++)
-                out.add(doc.substring(i, i + ngramLength));
-            // if ngrams anavailable, but document is not empty
-        } else if (doc.length() > 0) {
-            StringBuilder ngram = new StringBuilder(doc);
-            while (ngram.length() < ngramLength)
-                ngram.append(" ");
-            out.add(ngram.toString());
+    private int[] writableNode(int id) {
+        int[] counts = nodes.get(id);
+        if (sharedNodes.get(id)) {
+            sharedNodes.clear(id);
+            counts = counts.clone();
+            nodes.set(id, counts);
         }
-        return out;
+        return counts;
     }
 
     /**
-     * Adds a node (N-gram) to the model
+     * counts of the edge which can be changed in place (copied first if they are shared with a snapshot)
      *
-     * @param node     ngram label
-     * @param language language
+     * @param edge id of the edge
      */
-    private void addNode(String node, String language) {
-        // Check if this node exists
-        if (!nodes.containsKey(node)) {
-            // Add the node as it doesn't exist yet
-            nodes.put(node, new TreeMap<String, Integer>());
-            edges.put(node, new TreeMap<String, TreeMap<String, Integer>>());
+    private int[] writableEdge(int edge) {
+        int[] counts = edges.get(edge);
+        if (sharedEdges.get(edge)) {
+            sharedEdges.clear(edge);
+            counts = counts.clone();
+            edges.set(edge, counts);
         }
-        // Initialize the count for this node for this language
-        if (!nodes.get(node).containsKey(language))
-            nodes.get(node).put(language, 0);
+        return counts;
+    }
+
+    /**
+     * Adds an occurrence of existing node
+     *
+     * @param id   id of the node
+     * @param lang language index
+     */
+    private void addNode(int id, int lang) {
         // Increase the counter for this language
-        nodes.get(node).put(language, nodes.get(node).get(language) + 1);
+        nodes.set(id, LangCounts.add(writableNode(id), lang, 1));
 
         // Update the total counter
-        if (!counter.containsKey(language))
-            counter.put(language, new MutablePair<Integer, Integer>(0, 0));
-        counter.get(language).setLeft(counter.get(language).getLeft() + 1);
+        nodesTotal[lang]++;
     }
 
     /**
      * Adds an edge between two existing nodes
      *
-     * @param source   node from
-     * @param target   node to
-     * @param language language
+     * @param source id of node from
+     * @param target id of node to
+     * @param lang   language index
      */
-    private void addEdge(String source, String target, String language) {
-        // Check if there is already an edge
-        if (!edges.get(source).containsKey(target))
-            edges.get(source).put(target, new TreeMap<String, Integer>());
-
-        // Check if there is an edge for this language
-        if (!edges.get(source).get(target).containsKey(language))
-            edges.get(source).get(target).put(language, 0);
+    private void addEdge(int source, int target, int lang) {
+        // Get the edge, add it if it doesn't exist yet
+        int edge = internEdge(source, target);
 
         // Increase the count
-        edges.get(source).get(target).put(language, edges.get(source).get(target).get(language) + 1);
+        edges.set(edge, LangCounts.add(writableEdge(edge), lang, 1));
 
         // Update the total counter, source node and target node should exist for this language
-        counter.get(language).setRight(counter.get(language).getRight() + 1);
+        edgesTotal[lang]++;
     }
 
     /**
-     * Recursive path matching function
+     * Returns index of the language, registers it (with zero totals) if it doesn't exist yet
      *
-     * @param path     path of ngrams
-     * @param counts   map with current scores
-     * @param depth    current depth of recursion
-     * @param maxDepth max allowed depth of recursion
+     * @param language language code
      */
-    private List<Map<String, MutablePair<Integer, Integer>>> recPathMatching(List<String> path,
-                                                                                 List<Map<String, MutablePair<Integer, Integer>>> counts,
-                                                                                 Integer depth, Integer maxDepth) {
-        if (depth > maxDepth || path.size() == 0)
-            return counts; // Done traversing, return accumulator
-        else if (path.size() == 1) {
+    private int addLanguage(String language) {
+        int size = languages.size();
+        int lang = languages.add(language);
+        if (lang == nodesTotal.length) {
+            nodesTotal = Arrays.copyOf(nodesTotal, lang << 1);
+            edgesTotal = Arrays.copyOf(edgesTotal, lang << 1);
+        }
+        if (lang == size && journal != null)
+            journal.language(language);
+        return lang;
+    }
 
-            HashMap<String, MutablePair<Integer, Integer>> ngramCounts = new HashMap<>();
+    /**
+     * Returns id of the node, adds an empty node if it doesn't exist yet
+     *
+     * @param ngram ngram label
+     */
+    private int internNode(String ngram) {
+        int id = vocabulary.add(ngram);
+        if (id == nodes.size()) {
+            nodes.add(LangCounts.EMPTY);
+            if (journal != null)
+                journal.ngram(ngram);
+        }
+        return id;
+    }
 
-            String ngram = path.get(0);
-            // There is just one node left, just count node and disregard edges
-            if (nodes.containsKey(ngram))
-                countNodes(ngram, ngramCounts);
+    /**
+     * Returns id of the node, adds an empty node if it doesn't exist yet
+     *
+     * @param ngram cursor at the ngram
+     */
+    private int internNode(NgramCursor ngram) {
+        int id = vocabulary.add(ngram);
+        if (id == nodes.size()) {
+            nodes.add(LangCounts.EMPTY);
+            if (journal != null)
+                journal.ngram(vocabulary.get(id));
+        }
+        return id;
+    }
 
-            if (!ngramCounts.isEmpty())
-                counts.add(ngramCounts);
+    /**
+     * Returns id of the edge, adds an empty edge if it doesn't exist yet
+     *
+     * @param source id of node from
+     * @param target id of node to
+     */
+    private int internEdge(int source, int target) {
+        long key = edgeKey(source, target);
+        int edge = edgeIds.get(key);
+        if (edge == -1) {
+            edge = edges.size();
+            edges.add(LangCounts.EMPTY);
+            if (edge == edgeKeys.length || sharedEdgeKeys) {
+                edgeKeys = Arrays.copyOf(edgeKeys, Math.max(edgeKeys.length, edge << 1));
+                sharedEdgeKeys = false;
+            }
+            edgeKeys[edge] = key;
+            edgeIds.put(key, edge);
+        }
+        return edge;
+    }
 
-            return counts;
-        } else {
+    /**
+     * Packs pair of node ids into edge key
+     *
+     * @param source id of node from
+     * @param target id of node to
+     */
+    private static long edgeKey(int source, int target) {
+        return ((long) source << 32) | (target & 0xFFFFFFFFL);
+    }
 
-            HashMap<String, MutablePair<Integer, Integer>> ngramCounts = new HashMap<>();
+    private static int sourceOf(long edgeKey) {
+        return (int) (edgeKey >>> 32);
+    }
 
-            // Get source and target
-            String source = path.get(0);
-            String target = path.get(1);
+    private static int targetOf(long edgeKey) {
+        return (int) edgeKey;
+    }
 
-            // First we update scores for the source node
-            if (nodes.containsKey(source)) {
-                countNodes(source, ngramCounts);
-                countEdges(source, target, ngramCounts);
-            }
+    /**
+     * Path matching function. Walks the ngrams of the document once (up to max search depth) and adds the counts
+     * of every node and of the edge to the next ngram straight to the language scores
+     *
+     * @param ngrams cursor over document ngrams
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     */
+    private void matchPath(NgramCursor ngrams, double[] scores, boolean[] scored) {
+        if (logLIGA)
+            computeLogTotals();
+        // ngram i is counted when ngram i + 1 (target of its edge) is known
+        int last = Math.min(ngrams.count() - 1, maxSearchDepth);
+        int source = -1;
+        for (int i = 0; i <= last + 1 && ngrams.next(); i++) {
+            int target = vocabulary.idOf(ngrams);
+            if (i > 0)
+                countNgram(source, target, scores, scored);
+            source = target;
+        }
+        // there is no edge after the last node
+        if (last == ngrams.count() - 1 && last >= 0)
+            countNgram(source, -1, scores, scored);
+    }
 
-            if (!ngramCounts.isEmpty())
-                counts.add(ngramCounts);
+    /**
+     * Same as {@link #matchPath}, ngram ids of the document are already known (prepared text)
+     *
+     * @param ids    ngram ids of the document (-1 for unknown ngram)
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     */
+    private void matchIds(int[] ids, double[] scores, boolean[] scored) {
+        if (logLIGA)
+            computeLogTotals();
+        int last = Math.min(ids.length - 1, maxSearchDepth);
+        for (int i = 0; i <= last; i++)
+            countNgram(ids[i], i + 1 < ids.length ? ids[i + 1] : -1, scores, scored);
+    }
 
-            // Recurse with the trailing path
-            path.remove(0);
-            return recPathMatching(path, counts, ++depth, maxDepth);
+    /**
+     * Same as {@link #matchPath}, but stops when the best language is known. Ids of the ngrams are looked up first,
+     * so the gains of the ngrams which are not counted yet are bounded by the max gains of these very ngrams,
+     * and the ngrams with the biggest gains are counted first
+     *
+     * @param ngrams cursor over document ngrams
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     * @return number of counted ngrams
+     */
+    private int matchPathEarly(NgramCursor ngrams, double[] scores, boolean[] scored) {
+        if (logLIGA)
+            computeLogTotals();
+        computeNgramGains();
+        int last = Math.min(ngrams.count() - 1, maxSearchDepth);
+        int[] ids = new int[last + 1];
+        int count = 0;
+        while (count <= last && ngrams.next())
+            ids[count++] = vocabulary.idOf(ngrams);
+        // edge target of the last counted ngram (there is no edge after the last node)
+        int next = last < ngrams.count() - 1 && ngrams.next() ? vocabulary.idOf(ngrams) : -1;
+        double[] remaining = new double[count + 1];
+        int[] order = Scoring.countingOrder(ids, count, ngramGains, remaining);
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            countNgram(ids[i], i + 1 < count ? ids[i + 1] : next, scores, scored);
+            // scores are not higher than the counted gains, the leader can not be ahead of the remaining ones before
+            if (remaining[k + 1] * 2 < remaining[0] && Scoring.isDecided(scores, scored, remaining[k + 1], threshold))
+                return k + 1;
         }
+        return count;
     }
 
     /**
-     * Counts nodes
-     *
-     * @param ngram  node
-     * @param counts map for counts
+     * Computes logs of the totals if they are not computed yet (or the totals changed since)
+     */
+    private void computeLogTotals() {
+        if (logNodesTotal != null && logNodesTotal.length == languages.size())
+            return;
+        logNodesTotal = Scoring.logTotals(nodesTotal, languages.size());
+        logEdgesTotal = Scoring.logTotals(edgesTotal, languages.size());
+    }
+
+    /**
+     * Computes max gains of every ngram if they are not computed yet (or the counts changed since)
      */
-    private void countNodes(String ngram, HashMap<String, MutablePair<Integer, Integer>> counts) {
-        for (Entry<String, Integer> langCounts : nodes.get(ngram).entrySet()) {
-            String language = langCounts.getKey();
-            Integer cnt = langCounts.getValue();
-            // Update score
-            if (!counts.containsKey(language))
-                counts.put(language, new MutablePair<Integer, Integer>(0, 0));
-            counts.put(language, MutablePair.of(counts.get(language).getLeft() + cnt, counts.get(language).getRight()));
+    private void computeNgramGains() {
+        if (ngramGains != null && ngramGains.length == nodes.size())
+            return;
+        // weights of zero counts are added for languages which are present only on one side (node or edge)
+        double zeroNode = 0d;
+        double zeroEdge = 0d;
+        for (int lang = 0; lang < languages.size(); lang++) {
+            zeroNode = Scoring.maxWeight(zeroNode, Scoring.weight(0, nodesTotal[lang], logLIGA));
+            zeroEdge = Scoring.maxWeight(zeroEdge, Scoring.weight(0, edgesTotal[lang], logLIGA));
+        }
+        double[] maxEdge = new double[nodes.size()];
+        Arrays.fill(maxEdge, zeroEdge);
+        for (int edge = 0; edge < edges.size(); edge++) {
+            int source = sourceOf(edgeKeys[edge]);
+            int[] counts = edges.get(edge);
+            for (int i = 0; i < counts.length; i += 2)
+                maxEdge[source] = Scoring.maxWeight(maxEdge[source],
+                        Scoring.weight(counts[i + 1], edgesTotal[counts[i]], logLIGA));
         }
+        double[] gains = new double[nodes.size()];
+        for (int id = 0; id < gains.length; id++) {
+            int[] counts = nodes.get(id);
+            double maxNode = zeroNode;
+            for (int i = 0; i < counts.length; i += 2)
+                maxNode = Scoring.maxWeight(maxNode, Scoring.weight(counts[i + 1], nodesTotal[counts[i]], logLIGA));
+            gains[id] = maxNode + maxEdge[id];
+        }
+        ngramGains = gains;
+    }
+
+    /**
+     * Drops cached logs of the totals and max gains and changes the model version, must be called whenever the counts change
+     */
+    private void resetScoringCache() {
+        logNodesTotal = null;
+        logEdgesTotal = null;
+        ngramGains = null;
+        changeVersion();
+    }
+
+    /**
+     * new version of the model, cached classification results of the previous versions are not used
+     */
+    private void changeVersion() {
+        version = ClassificationCache.nextVersion();
+    }
+
+    /**
+     * Adds counts of the node and of the edge to the next ngram to the language scores
+     *
+     * @param source ngram id (-1 for unknown ngram)
+     * @param target next ngram id (-1 for unknown or absent ngram)
+     * @param scores scores, indexed by language
+     * @param scored flags of languages which got any counts
+     */
+    private void countNgram(int source, int target, double[] scores, boolean[] scored) {
+        // unknown ngrams and their edges are not counted
+        if (source == -1)
+            return;
+        int[] nodeCounts = nodes.get(source);
+        int[] edgeCounts = countEdges(source, target);
+        Scoring.addNgram(scores, scored, nodeCounts, 0, nodeCounts.length, edgeCounts, 0, edgeCounts.length,
+                nodesTotal, edgesTotal, logNodesTotal, logEdgesTotal, logLIGA);
     }
 
     /**
      * Counts edges
      *
-     * @param source source ngram
-     * @param target target ngram
-     * @param counts map for counts
-     */
-    private void countEdges(String source, String target, HashMap<String, MutablePair<Integer, Integer>> counts) {
-        if (edges.containsKey(source)) {
-            if (edges.get(source).containsKey(target)) {
-                // Add up scores
-                for (Entry<String, Integer> langCounts : edges.get(source).get(target).entrySet()) {
-                    String language = langCounts.getKey();
-                    Integer cnt = langCounts.getValue();
-                    // Update score
-                    if (!counts.containsKey(language))
-                        counts.put(language, new MutablePair<Integer, Integer>(0, 0));
-                    counts.put(language, MutablePair.of(counts.get(language).getLeft(), counts.get(language).getRight() + cnt));
-                }
-            }
+     * @param source source ngram id
+     * @param target target ngram id
+     * @return packed counts of the edge
+     */
+    private int[] countEdges(int source, int target) {
+        if (target != -1) {
+            int edge = edgeIds.get(edgeKey(source, target));
+            if (edge != -1)
+                return edges.get(edge);
         }
+        return LangCounts.EMPTY;
     }
 
     /**
@@ -291,29 +783,53 @@ public class LIGA {
      * @param doc original document
      */
     public String classifyMostProbable(String doc, int ngramLength) {
-
         if (debug) System.out.println(doc);
+        return (String) classify(ClassificationCache.MOST_PROBABLE, doc, ngramLength);
+    }
 
-        Double bestScore = -1.0;
-        String bestLang = "UNKNOWN";
+    /**
+     * Preprocesses a raw message and returns the most probable language, the same as
+     * classifyMostProbable(getTokenizer().clean(text), ngramLength) without intermediate strings
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public String classifyMostProbableText(String text, int ngramLength) {
+        if (debug) System.out.println(text);
+        return (String) classify(ClassificationCache.MOST_PROBABLE_TEXT, text, ngramLength);
+    }
 
-        if (modelIsNotEmpty()) {
-            // Get all N-grams into a list
-            List<String> ngrams = getNgrams(doc, ngramLength);
+    /**
+     * Returns the most probable language of the prepared document, the same as
+     * classifyMostProbable(text.getDoc(), text.getNgramLength()) without preprocessing
+     *
+     * @param text prepared document
+     */
+    public String classifyMostProbable(PreparedText text) {
+        text.checkTokenizer(tokenizer);
+        if (debug) System.out.println(text);
+        return (String) classify(ClassificationCache.MOST_PROBABLE, text.getDoc(), text.getNgramLength(), text);
+    }
 
-            // Get counts
-            List<Map<String, MutablePair<Integer, Integer>>> counts = recPathMatching(ngrams, new ArrayList<>(), 0, maxSearchDepth);
+    /**
+     * @param ngrams cursor over document ngrams (not used if ids are known)
+     * @param ids    ngram ids of the prepared text (null - ngrams are looked up)
+     */
+    private String classifyMostProbable(NgramCursor ngrams, int[] ids) {
 
+        String bestLang;
+
+        if (modelIsNotEmpty()) {
             // Calculate scores
-            Map<String, Double> scores = calcScores(counts);
+            double[] scores = new double[languages.size()];
+            boolean[] scored = new boolean[languages.size()];
+            if (ids != null)
+                matchIds(ids, scores, scored);
+            else
+                matchPath(ngrams, scores, scored);
 
             // Get the best score or return unknown
-            for (Entry<String, Double> score : scores.entrySet()) {
-                if (score.getValue() > bestScore && score.getValue() > threshold) {
-                    bestScore = score.getValue();
-                    bestLang = score.getKey();
-                }
-            }
+            bestLang = Scoring.bestLanguage(scores, scored, languages.codes(), threshold);
         } else {
             bestLang = "EMPTY MODEL";
         }
@@ -325,6 +841,25 @@ public class LIGA {
         return bestLang;
     }
 
+    /**
+     * Classifies a message and returns the most probable language, stops as soon as the leading language
+     * can not be overtaken by the remaining ngrams. The language is always the same as of classifyMostProbable,
+     * most documents are decided before all of their ngrams are counted
+     *
+     * @param doc         original document
+     * @param ngramLength n
+     * @return pair of the most probable language and the number of counted ngrams
+     */
+    public MutablePair<String, Integer> classifyMostProbableEarly(String doc, int ngramLength) {
+        if (!modelIsNotEmpty())
+            return new MutablePair<>("EMPTY MODEL", 0);
+        NgramCursor ngrams = new NgramCursor(doc, ngramLength);
+        double[] scores = new double[languages.size()];
+        boolean[] scored = new boolean[languages.size()];
+        int counted = matchPathEarly(ngrams, scores, scored);
+        return new MutablePair<>(Scoring.bestLanguage(scores, scored, languages.codes(), threshold), counted);
+    }
+
     /**
      * Gets scores for a given document
      *
@@ -332,125 +867,618 @@ public class LIGA {
      * @param ngramLength n
      */
     public Map<String, Double> classifyAll(String doc, int ngramLength){
-        Map<String, Double> scores = new HashMap<>();
-        if (modelIsNotEmpty()) {
-            // Get all N-grams into a list
-            List<String> ngrams = getNgrams(doc, ngramLength);
+        return scoresOf(classify(ClassificationCache.ALL, doc, ngramLength));
+    }
+
+    /**
+     * Preprocesses a raw message and gets its scores, the same as
+     * classifyAll(getTokenizer().clean(text), ngramLength) without intermediate strings
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAllText(String text, int ngramLength) {
+        return scoresOf(classify(ClassificationCache.ALL_TEXT, text, ngramLength));
+    }
+
+    /**
+     * Gets scores of the prepared document, the same as classifyAll(text.getDoc(), text.getNgramLength())
+     * without preprocessing
+     *
+     * @param text prepared document
+     */
+    public Map<String, Double> classifyAll(PreparedText text) {
+        text.checkTokenizer(tokenizer);
+        return scoresOf(classify(ClassificationCache.ALL, text.getDoc(), text.getNgramLength(), text));
+    }
+
+    /**
+     * Classification result of the kind, taken from the cache if it was computed by this version of the model
+     *
+     * @param kind        kind of the result (see ClassificationCache)
+     * @param doc         document or raw message
+     * @param ngramLength n
+     */
+    private Object classify(int kind, String doc, int ngramLength) {
+        return classify(kind, doc, ngramLength, null);
+    }
 
-            // Get counts
-            List<Map<String, MutablePair<Integer, Integer>>> counts = recPathMatching(ngrams, new ArrayList<>(), 0, maxSearchDepth);
+    /**
+     * Classification result of the kind, ngram ids of the prepared text (if not null) are taken from it
+     *
+     * @param kind        kind of the result (see ClassificationCache)
+     * @param doc         document or raw message
+     * @param ngramLength n
+     * @param prepared    prepared document (or null)
+     */
+    private Object classify(int kind, String doc, int ngramLength, PreparedText prepared) {
+        long current = version;
+        Object result = cache != null ? cache.get(current, kind, doc, ngramLength) : null;
+        if (result == null) {
+            NgramCursor ngrams = null;
+            int[] ids = null;
+            if (prepared != null)
+                ids = prepared.ngramIds(vocabulary);
+            else if (kind == ClassificationCache.MOST_PROBABLE || kind == ClassificationCache.ALL)
+                ngrams = new NgramCursor(doc, ngramLength);
+            else
+                ngrams = NgramCursor.preprocessed(tokenizer, doc, ngramLength);
+            if (kind == ClassificationCache.MOST_PROBABLE || kind == ClassificationCache.MOST_PROBABLE_TEXT)
+                result = classifyMostProbable(ngrams, ids);
+            else
+                result = classifyAll(ngrams, ids);
+            if (cache != null)
+                cache.put(current, kind, doc, ngramLength, result);
+        }
+        return result;
+    }
 
+    /**
+     * scores for the caller, cached scores are copied
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Double> scoresOf(Object result) {
+        Map<String, Double> scores = (Map<String, Double>) result;
+        return cache != null ? new HashMap<>(scores) : scores;
+    }
+
+    /**
+     * @param ngrams cursor over document ngrams (not used if ids are known)
+     * @param ids    ngram ids of the prepared text (null - ngrams are looked up)
+     */
+    private Map<String, Double> classifyAll(NgramCursor ngrams, int[] ids) {
+        Map<String, Double> scores = new HashMap<>();
+        if (modelIsNotEmpty()) {
             // Calculate scores
-            scores = calcScores(counts);
+            double[] langScores = new double[languages.size()];
+            boolean[] scored = new boolean[languages.size()];
+            if (ids != null)
+                matchIds(ids, langScores, scored);
+            else
+                matchPath(ngrams, langScores, scored);
+            scores = Scoring.toMap(langScores, scored, languages.codes());
         }
         return scores;
     }
 
     /**
-     * Calculates scores for LIGA or logLIGA
+     * Estimated memory of the model graph, bytes
+     */
+    public long estimateMemory() {
+        int langs = languages.size();
+        return estimateMemory(new int[langs], new int[langs]);
+    }
+
+    /**
+     * Prunes the model: removes rare node and edge entries, edges without entries and ngrams which have
+     * neither node entries nor edges (see {@link Pruning}). Ids of the remaining ngrams keep their order,
+     * totals are kept or recounted as sums of the remaining counts
      *
-     * @param counts counts
+     * @param pruning pruning settings
+     * @return report: numbers of ngrams, edges and estimated bytes before and after pruning
      */
-    private Map<String, Double> calcScores(List<Map<String, MutablePair<Integer, Integer>>> counts) {
-        if (logLIGA){
-            return calcScoresLogLIGA(counts);
-        } else {
-            return calcScoresLIGA(counts);
+    public TreeMap<String, Long> prune(Pruning pruning) {
+        synchronized (modelLock) {
+            TreeMap<String, Long> report = new TreeMap<>();
+            report.put("ngramsBefore", (long) vocabulary.size());
+            report.put("edgesBefore", (long) edges.size());
+            report.put("bytesBefore", estimateMemory());
+
+            // min count of every language, entries with lower counts are removed
+            int[] nodeMin = minCounts(nodes, pruning.getMinNodeCount(), pruning.getTopNodes());
+            int[] edgeMin = minCounts(edges, pruning.getMinEdgeCount(), pruning.getTopEdges());
+            long budget = pruning.getMemoryBudget();
+            if (budget > 0) {
+                // rare edges are the most of the model, they go first
+                while (estimateMemory(nodeMin, edgeMin) > budget && raiseMinCounts(edgeMin, edges)) ;
+                while (estimateMemory(nodeMin, edgeMin) > budget && raiseMinCounts(nodeMin, nodes)) ;
+            }
+            rebuild(nodeMin, edgeMin, pruning.isRecountTotals());
+
+            report.put("ngramsAfter", (long) vocabulary.size());
+            report.put("edgesAfter", (long) edges.size());
+            report.put("bytesAfter", estimateMemory());
+            return report;
         }
-        //Map<String, Double> scores = new HashMap<>();
     }
 
+    // estimated sizes of the model parts, bytes (object headers, references and hash table slots included)
+    private static final int NGRAM_BYTES = 96; // string, its chars header, vocabulary and node list slots
+    private static final int EDGE_BYTES = 64; // counts array header, edge key, edge id table slots
+    private static final int ENTRY_BYTES = 8; // {language, count} pair
+
     /**
-     * Calculates scores for default LIGA
+     * Estimated memory of the model which keeps only the entries with counts not lower than min counts
      *
-     * @param counts list ngram and ngram transitions counts for map of languages
-     * @return
+     * @param nodeMin min node counts, indexed by language
+     * @param edgeMin min edge counts, indexed by language
      */
-    private Map<String, Double> calcScoresLIGA(List<Map<String, MutablePair<Integer, Integer>>> counts) {
-        Map<String, Double> total = new HashMap<>();
+    private long estimateMemory(int[] nodeMin, int[] edgeMin) {
+        long bytes = 0;
+        boolean[] linked = new boolean[vocabulary.size()];
+        for (int edge = 0; edge < edges.size(); edge++) {
+            int entries = keptEntries(edges.get(edge), edgeMin);
+            if (entries > 0) {
+                bytes += EDGE_BYTES + ENTRY_BYTES * entries;
+                linked[sourceOf(edgeKeys[edge])] = true;
+                linked[targetOf(edgeKeys[edge])] = true;
+            }
+        }
+        for (int id = 0; id < vocabulary.size(); id++) {
+            int entries = keptEntries(nodes.get(id), nodeMin);
+            if (entries > 0 || linked[id])
+                bytes += NGRAM_BYTES + 2L * vocabulary.get(id).length() + ENTRY_BYTES * entries;
+        }
+        return bytes;
+    }
 
-        for (Map<String, MutablePair<Integer, Integer>> countMap: counts){
-            for (Entry<String, MutablePair<Integer, Integer>> count : countMap.entrySet()){
-                String lang = count.getKey(); // language
-                Integer nodes = count.getValue().getLeft(); // nodes count for language
-                Integer edges = count.getValue().getRight(); // edges count for language
-                Integer nodesTotal = counter.get(lang).getLeft(); // total number of nodes for language
-                Integer edgesTotal = counter.get(lang).getRight(); // total number of edges for language
+    /**
+     * Min counts of languages: the given min count, raised to the count of K-th top entry of the language
+     *
+     * @param counts   packed counts of nodes or edges
+     * @param minCount min count
+     * @param top      number of top entries to keep (0 - all)
+     */
+    private int[] minCounts(List<int[]> counts, int minCount, int top) {
+        int langs = languages.size();
+        int[] min = new int[langs];
+        Arrays.fill(min, minCount);
+        if (top <= 0)
+            return min;
+        // counts of every language
+        int[] sizes = new int[langs];
+        for (int[] entry : counts)
+            for (int i = 0; i < entry.length; i += 2)
+                sizes[entry[i]]++;
+        int[][] byLanguage = new int[langs][];
+        for (int lang = 0; lang < langs; lang++)
+            byLanguage[lang] = new int[sizes[lang]];
+        Arrays.fill(sizes, 0);
+        for (int[] entry : counts)
+            for (int i = 0; i < entry.length; i += 2)
+                byLanguage[entry[i]][sizes[entry[i]]++] = entry[i + 1];
+        for (int lang = 0; lang < langs; lang++) {
+            if (byLanguage[lang].length > top) {
+                Arrays.sort(byLanguage[lang]);
+                min[lang] = Math.max(min[lang], byLanguage[lang][byLanguage[lang].length - top]);
+            }
+        }
+        return min;
+    }
 
-                double nodesNormalized = (double) nodes / (double) nodesTotal;
-                double edgesNormalized = (double) edges / (double) edgesTotal;
+    /**
+     * Raises min counts of the languages which still have entries (by a quarter, at least by one)
+     *
+     * @param min    min counts, indexed by language
+     * @param counts packed counts of nodes or edges
+     * @return false if no entries are left
+     */
+    private boolean raiseMinCounts(int[] min, List<int[]> counts) {
+        int[] max = new int[min.length];
+        Arrays.fill(max, Integer.MIN_VALUE);
+        for (int[] entry : counts)
+            for (int i = 0; i < entry.length; i += 2)
+                max[entry[i]] = Math.max(max[entry[i]], entry[i + 1]);
+        boolean raised = false;
+        for (int lang = 0; lang < min.length; lang++) {
+            if (min[lang] <= max[lang]) {
+                min[lang] = Math.max(min[lang] + 1, min[lang] + min[lang] / 4);
+                raised = true;
+            }
+        }
+        return raised;
+    }
 
-                if (!total.containsKey(lang))
-                    total.put(lang, 0d);
-                total.put(lang, total.get(lang) + nodesNormalized + edgesNormalized);
+    /**
+     * Rebuilds the graph with the entries which have counts not lower than min counts
+     *
+     * @param nodeMin       min node counts, indexed by language
+     * @param edgeMin       min edge counts, indexed by language
+     * @param recountTotals if true - totals are recounted
+     */
+    private void rebuild(int[] nodeMin, int[] edgeMin, boolean recountTotals) {
+        // pruned model is journaled as a new snapshot
+        TrainingJournal journaled = journal;
+        journal = null;
+
+        int ngrams = vocabulary.size();
+        List<int[]> keptEdges = new ArrayList<>(edges.size());
+        boolean[] linked = new boolean[ngrams];
+        for (int edge = 0; edge < edges.size(); edge++) {
+            int[] counts = keepEntries(edges.get(edge), edgeMin);
+            keptEdges.add(counts);
+            if (counts.length > 0) {
+                linked[sourceOf(edgeKeys[edge])] = true;
+                linked[targetOf(edgeKeys[edge])] = true;
+            }
+        }
+
+        // ngrams keep the order of their ids
+        NgramVocabulary oldVocabulary = vocabulary;
+        List<int[]> oldNodes = nodes;
+        long[] oldEdgeKeys = edgeKeys;
+        int[] newIds = new int[ngrams];
+        vocabulary = new NgramVocabulary();
+        nodes = new PagedList<>();
+        for (int id = 0; id < ngrams; id++) {
+            int[] counts = keepEntries(oldNodes.get(id), nodeMin);
+            if (counts.length > 0 || linked[id]) {
+                newIds[id] = internNode(oldVocabulary.get(id));
+                nodes.set(newIds[id], counts);
+            } else {
+                newIds[id] = -1;
             }
         }
-        return total;
+        edgeIds = new LongIntHashMap();
+        edges = new PagedList<>();
+        edgeKeys = new long[64];
+        sharedEdgeKeys = false;
+        for (int edge = 0; edge < keptEdges.size(); edge++) {
+            if (keptEdges.get(edge).length > 0) {
+                int local = internEdge(newIds[sourceOf(oldEdgeKeys[edge])], newIds[targetOf(oldEdgeKeys[edge])]);
+                edges.set(local, keptEdges.get(edge));
+            }
+        }
+
+        // kept count arrays may be shared with snapshots
+        sharedNodes.clear();
+        sharedNodes.set(0, nodes.size());
+        sharedEdges.clear();
+        sharedEdges.set(0, edges.size());
+
+        if (recountTotals) {
+            Arrays.fill(nodesTotal, 0);
+            Arrays.fill(edgesTotal, 0);
+            for (int[] counts : nodes)
+                for (int i = 0; i < counts.length; i += 2)
+                    nodesTotal[counts[i]] += counts[i + 1];
+            for (int[] counts : edges)
+                for (int i = 0; i < counts.length; i += 2)
+                    edgesTotal[counts[i]] += counts[i + 1];
+        }
+        resetScoringCache();
+
+        if (journaled != null) {
+            journal = journaled;
+            compactJournal();
+        }
     }
 
     /**
-     * Calculates scores for logLIGA. Linearizes exponentially distrubuted (according to the Zipf's law) ngrams
+     * number of entries with counts not lower than min counts
      *
-     * @param counts list ngram and ngram transitions counts for map of languages
-     * @return
+     * @param counts packed counts
+     * @param min    min counts, indexed by language
      */
-    private Map<String, Double> calcScoresLogLIGA(List<Map<String, MutablePair<Integer, Integer>>> counts) {
-        Map<String, Double> total = new HashMap<>();
+    private static int keptEntries(int[] counts, int[] min) {
+        int kept = 0;
+        for (int i = 0; i < counts.length; i += 2)
+            if (counts[i + 1] >= min[counts[i]])
+                kept++;
+        return kept;
+    }
 
-        for (Map<String, MutablePair<Integer, Integer>> countMap: counts){
-            for (Entry<String, MutablePair<Integer, Integer>> count : countMap.entrySet()){
-                String lang = count.getKey(); // language
-                Integer nodes = count.getValue().getLeft(); // nodes count for language
-                Integer edges = count.getValue().getRight(); // edges count for language
-                Integer nodesTotal = counter.get(lang).getLeft(); // total number of nodes for language
-                Integer edgesTotal = counter.get(lang).getRight(); // total number of edges for language
+    /**
+     * entries with counts not lower than min counts
+     *
+     * @param counts packed counts
+     * @param min    min counts, indexed by language
+     */
+    private static int[] keepEntries(int[] counts, int[] min) {
+        int kept = keptEntries(counts, min);
+        if (kept == counts.length / 2)
+            return counts;
+        if (kept == 0)
+            return LangCounts.EMPTY;
+        int[] out = new int[kept * 2];
+        int o = 0;
+        for (int i = 0; i < counts.length; i += 2) {
+            if (counts[i + 1] >= min[counts[i]]) {
+                out[o++] = counts[i];
+                out[o++] = counts[i + 1];
+            }
+        }
+        return out;
+    }
 
-                double nodesLogNormalized = 0d;
-                double edgesLogNormalized = 0d;
+    /**
+     * Compiles the model into an immutable classifier with compact (CSR) graph storage.
+     * Later changes of this model do not affect the compiled one
+     */
+    public CompiledLIGA compile() {
+        return compile(0);
+    }
+
+    /**
+     * Compiles the model into an immutable classifier with counts quantized to 8 or 16 bit codes
+     * (see {@link CountQuantizer}): 4 bytes per node or edge entry instead of 12. The scores are the same
+     * as of the model with dequantized counts, 16 bit codes keep the counts exact unless a language
+     * has more than 65536 distinct counts
+     *
+     * @param codeBits code length: 8, 16 or 0 (not quantized, same as {@link #compile()})
+     */
+    public CompiledLIGA compile(int codeBits) {
+        int ngrams = vocabulary.size();
+        int langs = languages.size();
+
+        // weights of zero counts, used for languages which are present only on one side (node or edge)
+        double[] nodeZero = new double[langs];
+        double[] edgeZero = new double[langs];
+        for (int lang = 0; lang < langs; lang++) {
+            nodeZero[lang] = Scoring.weight(0, nodesTotal[lang], logLIGA);
+            edgeZero[lang] = Scoring.weight(0, edgesTotal[lang], logLIGA);
+        }
+
+        // node weights, row of ngram id is [nodeOffsets[id], nodeOffsets[id + 1])
+        int[] nodeOffsets = new int[ngrams + 1];
+        for (int id = 0; id < ngrams; id++)
+            nodeOffsets[id + 1] = nodeOffsets[id] + nodes.get(id).length / 2;
+        int[] nodeLangs = new int[nodeOffsets[ngrams]];
+        double[] nodeWeights = codeBits > 0 ? null : new double[nodeOffsets[ngrams]];
+        CountQuantizer nodeCodes = codeBits > 0 ? CountQuantizer.of(nodes, langs, codeBits) : null;
+        for (int id = 0; id < ngrams; id++) {
+            if (codeBits > 0)
+                toCodes(nodes.get(id), nodeCodes, nodeLangs, nodeOffsets[id]);
+            else
+                toWeights(nodes.get(id), nodesTotal, nodeLangs, nodeWeights, nodeOffsets[id]);
+        }
 
-                if ((nodes > 0) && (nodesTotal > 0))
-                    nodesLogNormalized = Math.log(nodes) / Math.log(nodesTotal); // linearized ngram frequencies
-                if ((edges > 0) && (edgesTotal > 0))
-                    edgesLogNormalized = Math.log(edges) / Math.log(edgesTotal); // linearized ngram transition frequencies
+        // edges sorted by source, then by target
+        long[] sortedEdges = Arrays.copyOf(edgeKeys, edges.size());
+        Arrays.sort(sortedEdges);
+        int[] edgeOffsets = new int[ngrams + 1];
+        int[] edgeTargets = new int[sortedEdges.length];
+        int[] edgeWeightOffsets = new int[sortedEdges.length + 1];
+        for (int i = 0; i < sortedEdges.length; i++) {
+            edgeOffsets[sourceOf(sortedEdges[i]) + 1]++;
+            edgeTargets[i] = targetOf(sortedEdges[i]);
+            edgeWeightOffsets[i + 1] = edgeWeightOffsets[i] + edges.get(edgeIds.get(sortedEdges[i])).length / 2;
+        }
+        for (int id = 0; id < ngrams; id++)
+            edgeOffsets[id + 1] += edgeOffsets[id];
+        int[] edgeLangs = new int[edgeWeightOffsets[sortedEdges.length]];
+        double[] edgeWeights = codeBits > 0 ? null : new double[edgeWeightOffsets[sortedEdges.length]];
+        CountQuantizer edgeCodes = codeBits > 0 ? CountQuantizer.of(edges, langs, codeBits) : null;
+        for (int i = 0; i < sortedEdges.length; i++) {
+            int[] counts = edges.get(edgeIds.get(sortedEdges[i]));
+            if (codeBits > 0)
+                toCodes(counts, edgeCodes, edgeLangs, edgeWeightOffsets[i]);
+            else
+                toWeights(counts, edgesTotal, edgeLangs, edgeWeights, edgeWeightOffsets[i]);
+        }
+
+        if (codeBits > 0)
+            return new CompiledLIGA(threshold, maxSearchDepth, logLIGA, tokenizer, vocabulary.copy(),
+                    Arrays.copyOf(languages.codes(), langs), nodeZero, edgeZero, codeBits,
+                    nodeOffsets, nodeLangs, toTable(nodeCodes, nodesTotal),
+                    edgeOffsets, edgeTargets, edgeWeightOffsets, edgeLangs, toTable(edgeCodes, edgesTotal));
+        return new CompiledLIGA(threshold, maxSearchDepth, logLIGA, tokenizer, vocabulary.copy(),
+                Arrays.copyOf(languages.codes(), langs), nodeZero, edgeZero,
+                nodeOffsets, nodeLangs, nodeWeights,
+                edgeOffsets, edgeTargets, edgeWeightOffsets, edgeLangs, edgeWeights);
+    }
+
+    /**
+     * Unpacks counts into languages and weights (normalized by the totals of the languages)
+     *
+     * @param counts  packed counts
+     * @param totals  totals, indexed by language
+     * @param langs   languages (output)
+     * @param weights weights (output)
+     * @param at      first output position
+     */
+    private void toWeights(int[] counts, int[] totals, int[] langs, double[] weights, int at) {
+        for (int i = 0; i < counts.length; i += 2, at++) {
+            langs[at] = counts[i];
+            weights[at] = Scoring.weight(counts[i + 1], totals[counts[i]], logLIGA);
+        }
+    }
 
-                if (!total.containsKey(lang))
-                    total.put(lang, 0d);
-                total.put(lang, total.get(lang) + nodesLogNormalized + edgesLogNormalized);
+    /**
+     * Packs languages and codes of the counts into entries (language << bits | code)
+     *
+     * @param counts    packed counts
+     * @param quantizer codes of the counts
+     * @param entries   entries (output)
+     * @param at        first output position
+     */
+    private static void toCodes(int[] counts, CountQuantizer quantizer, int[] entries, int at) {
+        for (int i = 0; i < counts.length; i += 2, at++)
+            entries[at] = counts[i] << quantizer.bits() | quantizer.code(counts[i], counts[i + 1]);
+    }
+
+    /**
+     * Weights of the codes (normalized by the totals of the languages), indexed by language and code
+     *
+     * @param quantizer codes of the counts
+     * @param totals    totals, indexed by language
+     */
+    private double[][] toTable(CountQuantizer quantizer, int[] totals) {
+        double[][] table = new double[quantizer.languages()][];
+        for (int lang = 0; lang < table.length; lang++) {
+            int[] values = quantizer.values(lang);
+            table[lang] = new double[values.length];
+            for (int code = 0; code < values.length; code++)
+                table[lang][code] = Scoring.weight(values[code], totals[lang], logLIGA);
+        }
+        return table;
+    }
+
+    /**
+     * loads model from the file (drops old graph and counter), if the model is corrupted, the model stays empty
+     *
+     * @param path path to the model
+     */
+    public void loadModel(String path) {
+        // loaded model replaces the journaled one, the journal is compacted after loading
+        TrainingJournal journaled = journal;
+        journal = null;
+        try {
+            dropModel();
+            tokenizer = Tokenizer.forName(Tokenizer.FULL);
+            JsonFactory jFactory = new JsonFactory();
+            // compressed models are decompressed on the fly
+            JsonParser jParser = jFactory.createParser(ModelFiles.open(path));
+            // Continue until we find the end object
+            while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
+                // Get the field name
+                String fieldname = jParser.getCurrentName();
+                if (fieldname != null) {
+                    // We look for graph and counter field names
+                    if (fieldname.equals("graph")) {
+                        jParser.nextToken();
+                        readGraph(jParser);
+                    } else if (fieldname.equals("counter")) {
+                        jParser.nextToken();
+                        readCounter(jParser);
+                    } else if (fieldname.equals("tokenizer")) {
+                        jParser.nextToken();
+                        tokenizer = Tokenizer.forName(jParser.getText());
+                    }
+                }
             }
+            jParser.close();
+        } catch (Exception e) {
+            // half-loaded graph is not kept
+            dropModel();
+            System.out.println("Unable to load model");
+            e.printStackTrace();
+        }
+        changeVersion();
+        if (journaled != null) {
+            journal = journaled;
+            compactJournal();
         }
-        return total;
     }
 
     /**
-     * loads model from the file (drops old graph and counter)
+     * Loads the model, ngrams of the graph are parsed in parallel.
+     * The graph is split into chunks of ngrams by a quick scan of the bytes (brackets, strings and commas only),
+     * every chunk is parsed into its own partial graph, partial graphs are merged in chunk order,
+     * so the loaded model is the same as after loadModel. Compressed models are loaded with loadModel
      *
-     * @param path path to the model
+     * @param path    filepath
+     * @param threads number of threads
      */
-    public void loadModel(String path) {
+    public void loadModelParallel(String path, int threads) {
+        MappedByteBuffer bytes = null;
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            if (channel.size() <= Integer.MAX_VALUE)
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.out.println("Unable to load model");
+            e.printStackTrace();
+            return;
+        }
+        JsonModelScanner scanner = bytes != null ? new JsonModelScanner(bytes) : null;
+        int start = scanner != null ? scanner.skipWhitespace(0) : 0;
+        if (threads <= 1 || scanner == null || start >= bytes.limit() || bytes.get(start) != '{') {
+            // compressed, too large or not UTF-8 JSON model
+            loadModel(path);
+            return;
+        }
+
+        // loaded model replaces the journaled one, the journal is compacted after loading
+        TrainingJournal journaled = journal;
+        journal = null;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
         try {
             dropModel();
+            tokenizer = Tokenizer.forName(Tokenizer.FULL);
             JsonFactory jFactory = new JsonFactory();
-            JsonParser jParser = jFactory.createParser(new File(path));
-            // Continue until we find the end object
-            while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
-                // Get the field name
-                String fieldname = jParser.getCurrentName();
-                if (fieldname != null) {
-                    // We look for graph and counter field names
-                    if (fieldname.equals("graph")) {
-                        jParser.nextToken();
-                        readGraph(jParser);
-                    } else if (fieldname.equals("counter")) {
-                        jParser.nextToken();
-                        readCounter(jParser);
-                    }
+            for (int[] field : scanner.fields(start)) {
+                String fieldname = scanner.name(field[0]);
+                if (fieldname.equals("graph")) {
+                    readGraphParallel(scanner, scanner.fields(field[1]), jFactory, pool, threads);
+                } else if (fieldname.equals("counter")) {
+                    JsonParser jParser = jFactory.createParser(scanner.value(field[1], field[2]));
+                    jParser.nextToken();
+                    readCounter(jParser);
+                    jParser.close();
+                } else if (fieldname.equals("tokenizer")) {
+                    JsonParser jParser = jFactory.createParser(scanner.value(field[1], field[2]));
+                    jParser.nextToken();
+                    tokenizer = Tokenizer.forName(jParser.getText());
+                    jParser.close();
                 }
             }
-            jParser.close();
         } catch (Exception e) {
+            dropModel();
             System.out.println("Unable to load model");
             e.printStackTrace();
+        } finally {
+            pool.shutdownNow();
+        }
+        changeVersion();
+        if (journaled != null) {
+            journal = journaled;
+            compactJournal();
+        }
+    }
+
+    /**
+     * reads model graph in parallel
+     *
+     * @param scanner  scanner of the model bytes
+     * @param ngrams   fields of the graph (ngrams)
+     * @param jFactory parser factory
+     * @param pool     thread pool
+     * @param threads  number of threads
+     */
+    private void readGraphParallel(final JsonModelScanner scanner, List<int[]> ngrams, final JsonFactory jFactory,
+                                   ExecutorService pool, int threads) throws Exception {
+        if (ngrams.isEmpty())
+            return;
+        // a few chunks per thread for better load balancing, chunks have about the same number of bytes
+        int chunks = Math.min(ngrams.size(), threads * 4);
+        long first = ngrams.get(0)[0];
+        long bytes = ngrams.get(ngrams.size() - 1)[2] - first;
+        List<Future<LIGA>> partials = new ArrayList<>(chunks);
+        int from = 0;
+        for (int c = 0; c < chunks && from < ngrams.size(); c++) {
+            long end = first + bytes * (c + 1) / chunks;
+            int to = from + 1;
+            while (to < ngrams.size() && ngrams.get(to)[0] < end)
+                to++;
+            final byte[] chunk = scanner.object(ngrams, from, to);
+            partials.add(pool.submit(new Callable<LIGA>() {
+                @Override
+                public LIGA call() throws IOException {
+                    LIGA partial = new LIGA(new LIGABuilder(threshold));
+                    JsonParser jParser = jFactory.createParser(chunk);
+                    jParser.nextToken();
+                    partial.readGraph(jParser);
+                    jParser.close();
+                    return partial;
+                }
+            }));
+            from = to;
         }
+        List<LIGA> parsed = new ArrayList<>(partials.size());
+        for (Future<LIGA> partial : partials)
+            parsed.add(partial.get());
+        for (LIGA partial : parsed)
+            mergeModel(partial);
     }
 
     /**
@@ -503,14 +1531,9 @@ public class LIGA {
      */
     private void readGraphNode(String ngram, String language, Integer count) {
         // Add the ngram if required
-        if (!nodes.containsKey(ngram)) {
-            nodes.put(ngram, new TreeMap<String, Integer>());
-            edges.put(ngram, new TreeMap<String, TreeMap<String, Integer>>());
-        }
-        if (!nodes.get(ngram).containsKey(language))
-            nodes.get(ngram).put(language, 0);
+        int id = internNode(ngram);
         // Add the counts
-        nodes.get(ngram).put(language, count);
+        nodes.set(id, LangCounts.set(writableNode(id), addLanguage(language), count));
     }
 
     /**
@@ -522,31 +1545,19 @@ public class LIGA {
      * @param count    count (weight)
      */
     private void readGraphEdge(String ngram, String target, String language, Integer count) {
-        // Add the ngram if required
-        if (!nodes.containsKey(ngram)) {
-            nodes.put(ngram, new TreeMap<String, Integer>());
-            edges.put(ngram, new TreeMap<String, TreeMap<String, Integer>>());
-        }
+        int lang = addLanguage(language);
 
-        if (!nodes.get(ngram).containsKey(language))
-            nodes.get(ngram).put(language, 0);
+        // Add the ngram if required
+        int sourceId = internNode(ngram);
+        nodes.set(sourceId, LangCounts.putIfAbsent(nodes.get(sourceId), lang, 0));
 
         // Add the target if required
-        if (!nodes.containsKey(target)) {
-            nodes.put(target, new TreeMap<String, Integer>());
-            edges.put(target, new TreeMap<String, TreeMap<String, Integer>>());
-        }
-        if (!nodes.get(target).containsKey(language))
-            nodes.get(target).put(language, 0);
+        int targetId = internNode(target);
+        nodes.set(targetId, LangCounts.putIfAbsent(nodes.get(targetId), lang, 0));
 
         // Add the edge
-        if (!edges.containsKey(ngram))
-            edges.put(ngram, new TreeMap<String, TreeMap<String, Integer>>());
-        if (!edges.get(ngram).containsKey(target))
-            edges.get(ngram).put(target, new TreeMap<String, Integer>());
-        if (!edges.get(ngram).get(target).containsKey(language))
-            edges.get(ngram).get(target).put(language, 0);
-        edges.get(ngram).get(target).put(language, count);
+        int edge = internEdge(sourceId, targetId);
+        edges.set(edge, LangCounts.set(writableEdge(edge), lang, count));
     }
 
     /**
@@ -587,12 +1598,9 @@ public class LIGA {
      * @param count    total count
      */
     private void readCounterNode(String language, Integer count) {
-        // Add the language if it didn't exist yet
-        if (!counter.containsKey(language))
-            counter.put(language, new MutablePair<Integer, Integer>(0, 0));
-
-        // Add to the mapping
-        counter.get(language).setLeft(count);
+        // Add the language if it didn't exist yet and add to the mapping
+        nodesTotal[addLanguage(language)] = count;
+        resetScoringCache();
     }
 
     /**
@@ -602,26 +1610,242 @@ public class LIGA {
      * @param count    total count
      */
     private void readCounterEdge(String language, Integer count) {
-        // Add the language if it didn't exist yet
-        if (!counter.containsKey(language))
-            counter.put(language, new MutablePair<Integer, Integer>(0, 0));
-
-        // Add it
-        counter.get(language).setRight(count);
+        // Add the language if it didn't exist yet and add it
+        edgesTotal[addLanguage(language)] = count;
+        resetScoringCache();
     }
 
     /**
      * cleans hash maps and sets all the values default
      */
     public void dropModel() {
+        vocabulary.clear();
         nodes.clear();
+        edgeIds.clear();
         edges.clear();
-        counter.clear();
+        sharedNodes.clear();
+        sharedEdges.clear();
+        edgeKeys = new long[64];
+        sharedEdgeKeys = false;
+        languages.clear();
+        nodesTotal = new int[8];
+        edgesTotal = new int[8];
+        resetScoringCache();
+        if (journal != null) {
+            journal.drop();
+            commitJournal();
+        }
+    }
+
+    /**
+     * Opens the training journal: every change of the model (added documents, merges, drops) is appended
+     * to the journal, the whole model is written only when the journal is compacted into a new snapshot.
+     * If the snapshot or the journal exists, the model is recovered from them (the last snapshot and the
+     * changes after it), otherwise the current model becomes the first snapshot.
+     * Changes are buffered, call {@link #checkpoint()} to write them to the disk, the checkpoint compacts
+     * the journal when it gets longer than the journal compaction size
+     *
+     * @param snapshotPath path of the snapshot (binary model)
+     * @param journalPath  path of the journal
+     */
+    public void openJournal(String snapshotPath, String journalPath) {
+        closeJournal();
+        this.snapshotPath = snapshotPath;
+        this.journalPath = journalPath;
+        try {
+            if (new File(snapshotPath).exists() || new File(journalPath).exists()) {
+                recoverJournal();
+            } else {
+                journal = TrainingJournal.create(journalPath, writeSnapshot());
+            }
+        } catch (Exception e) {
+            journal = null;
+            System.out.println("Unable to open journal");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the journaled changes to the disk, compacts the journal into a new snapshot
+     * when it is longer than the journal compaction size (see {@link LIGABuilder#setJournalCompactionBytes})
+     */
+    public void checkpoint() {
+        if (journal == null)
+            return;
+        if (journalCompactionBytes > 0 && journal.length() > journalCompactionBytes) {
+            compactJournal();
+            return;
+        }
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            System.out.println("Unable to write journal");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the model as a new snapshot and starts an empty journal
+     */
+    public void compactJournal() {
+        if (journal == null)
+            return;
+        TrainingJournal old = journal;
+        try {
+            journal = TrainingJournal.create(journalPath, writeSnapshot());
+        } catch (IOException e) {
+            // the journal on the disk may belong to the old snapshot, the changes can not be journaled anymore
+            journal = null;
+            System.out.println("Unable to compact journal, journal is closed");
+            e.printStackTrace();
+        }
+        try {
+            old.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the journaled changes to the disk and stops journaling
+     */
+    public void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Unable to write journal");
+                e.printStackTrace();
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Loads the snapshot and replays the journal on top of it
+     */
+    private void recoverJournal() throws IOException {
+        int checksum = TrainingJournal.snapshotChecksum(snapshotPath);
+        dropModel();
+        if (new File(snapshotPath).exists())
+            try (VarIntInputStream in = new VarIntInputStream(new FileInputStream(snapshotPath))) {
+                readBinary(in);
+            }
+        long length = -1;
+        if (new File(journalPath).exists()) {
+            length = TrainingJournal.replay(journalPath, checksum, new TrainingJournal.RecordHandler() {
+                @Override
+                public void record(VarIntInputStream entries) throws IOException {
+                    replayRecord(entries);
+                }
+            });
+        }
+        // journal of another snapshot was already compacted into this one
+        journal = length < 0 ? TrainingJournal.create(journalPath, checksum) : TrainingJournal.append(journalPath, length);
+    }
+
+    /**
+     * Applies one record of the journal
+     *
+     * @param entries entries of the record
+     */
+    private void replayRecord(VarIntInputStream entries) throws IOException {
+        while (entries.available() > 0) {
+            int tag = entries.readVarInt();
+            if (tag == TrainingJournal.LANGUAGE) {
+                int expected = languages.size();
+                if (addLanguage(entries.readString()) != expected)
+                    throw new IOException("Corrupted journal: duplicate language");
+            } else if (tag == TrainingJournal.NGRAM) {
+                int expected = nodes.size();
+                if (internNode(entries.readString()) != expected)
+                    throw new IOException("Corrupted journal: duplicate ngram");
+            } else if (tag == TrainingJournal.DOCUMENT) {
+                int lang = checkLanguage(entries.readVarInt());
+                int count = entries.readVarInt();
+                int previousId = -1;
+                for (int i = 0; i < count; i++) {
+                    int id = checkNgram(entries.readVarInt());
+                    addNode(id, lang);
+                    if (previousId != -1)
+                        addEdge(previousId, id, lang);
+                    previousId = id;
+                }
+            } else if (tag == TrainingJournal.NODE) {
+                int id = checkNgram(entries.readVarInt());
+                int lang = checkLanguage(entries.readVarInt());
+                nodes.set(id, LangCounts.add(writableNode(id), lang, entries.readVarInt()));
+            } else if (tag == TrainingJournal.EDGE) {
+                int edge = internEdge(checkNgram(entries.readVarInt()), checkNgram(entries.readVarInt()));
+                int lang = checkLanguage(entries.readVarInt());
+                edges.set(edge, LangCounts.add(writableEdge(edge), lang, entries.readVarInt()));
+            } else if (tag == TrainingJournal.TOTALS) {
+                int lang = checkLanguage(entries.readVarInt());
+                nodesTotal[lang] += entries.readVarInt();
+                edgesTotal[lang] += entries.readVarInt();
+            } else if (tag == TrainingJournal.DROP) {
+                dropModel();
+            } else {
+                throw new IOException("Corrupted journal: unknown entry " + tag);
+            }
+        }
+        resetScoringCache();
+    }
+
+    private int checkLanguage(int lang) throws IOException {
+        if (lang < 0 || lang >= languages.size())
+            throw new IOException("Corrupted journal: unknown language " + lang);
+        return lang;
+    }
+
+    private int checkNgram(int id) throws IOException {
+        if (id < 0 || id >= nodes.size())
+            throw new IOException("Corrupted journal: unknown ngram " + id);
+        return id;
+    }
+
+    /**
+     * Writes the model as snapshot (atomically replaces the old one), empty model has no snapshot
+     *
+     * @return checksum of the snapshot, 0 for empty model
+     */
+    private int writeSnapshot() throws IOException {
+        File snapshot = new File(snapshotPath);
+        if (!modelIsNotEmpty()) {
+            Files.deleteIfExists(snapshot.toPath());
+            return 0;
+        }
+        File tmp = new File(snapshotPath + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             VarIntOutputStream out = new VarIntOutputStream(file)) {
+            writeBinary(out, 0);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return TrainingJournal.snapshotChecksum(snapshotPath);
+    }
+
+    /**
+     * Appends the current journal record, stops journaling if it can not be written
+     */
+    private void commitJournal() {
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            System.out.println("Unable to write journal, journal is closed");
+            e.printStackTrace();
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+            }
+            journal = null;
+        }
     }
 
 
     private boolean modelIsNotEmpty() {
-        return !nodes.isEmpty() && !edges.isEmpty() && !counter.isEmpty();
+        return !nodes.isEmpty() && languages.size() > 0;
     }
 
     /**
@@ -630,14 +1854,29 @@ public class LIGA {
      * @param path filepath
      */
     public void saveModel(String path) {
-        if (modelIsNotEmpty())
+        saveModel(path, false);
+    }
+
+    /**
+     * saves model to file, optionally compressed (loadModel detects compression itself)
+     *
+     * @param path       filepath
+     * @param compressed if true - the model is compressed with GZIP
+     */
+    public void saveModel(String path, boolean compressed) {
+        // training may go on in other threads, the model is saved as of the start of saving
+        LIGA view = snapshot();
+        if (view.modelIsNotEmpty())
             try {
                 JsonFactory jFactory = new JsonFactory();
-                JsonGenerator jGenerator = jFactory.createGenerator(new File(path), JsonEncoding.UTF8);
+                JsonGenerator jGenerator = jFactory.createGenerator(ModelFiles.create(path, compressed), JsonEncoding.UTF8);
                 jGenerator.writeStartObject();
 
-                writeGraph(jGenerator);
-                writeCounter(jGenerator);
+                // models of the full tokenizer have no tokenizer field (as all the models before it was added)
+                if (!view.tokenizer.isFull())
+                    jGenerator.writeStringField("tokenizer", view.tokenizer.getName());
+                view.writeGraph(jGenerator);
+                view.writeCounter(jGenerator);
 
                 jGenerator.writeEndObject();
                 jGenerator.close();
@@ -653,10 +1892,27 @@ public class LIGA {
      * @param jGenerator generator instance
      */
     private void writeGraph(JsonGenerator jGenerator) throws IOException {
+        // ngrams are written in natural order, edges of every ngram - in natural order of targets
+        int[] order = vocabulary.sortedIds();
+        int[] rank = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+            rank[order[i]] = i;
+        int[] langRanks = languages.ranks();
+        long[] sortedEdges = new long[edges.size()];
+        for (int edge = 0; edge < sortedEdges.length; edge++)
+            sortedEdges[edge] = edgeKey(rank[sourceOf(edgeKeys[edge])], rank[targetOf(edgeKeys[edge])]);
+        Arrays.sort(sortedEdges);
+
         jGenerator.writeFieldName("graph");
         jGenerator.writeStartObject();
-        for (Entry<String, TreeMap<String, Integer>> node: nodes.entrySet())
-            writeNgram(jGenerator, node);
+        int next = 0;
+        for (int i = 0; i < order.length; i++) {
+            // edges of the current ngram
+            int first = next;
+            while (next < sortedEdges.length && sourceOf(sortedEdges[next]) == i)
+                next++;
+            writeNgram(jGenerator, order[i], order, sortedEdges, first, next, langRanks);
+        }
         jGenerator.writeEndObject();
     }
 
@@ -664,35 +1920,56 @@ public class LIGA {
      * writes ngram info (node and adjacent edges)
      *
      * @param jGenerator generator instance
-     * @param node ngram
+     * @param node ngram id
+     * @param order ngram ids in natural order
+     * @param sortedEdges edges as packed pairs of ranks in natural order
+     * @param from first edge of the ngram in sortedEdges (inclusive)
+     * @param to last edge of the ngram in sortedEdges (exclusive)
+     * @param langRanks ranks of languages in natural order of codes
      */
-    private void writeNgram(JsonGenerator jGenerator, Entry<String, TreeMap<String, Integer>> node) throws IOException {
-        jGenerator.writeFieldName(node.getKey());
+    private void writeNgram(JsonGenerator jGenerator, int node, int[] order, long[] sortedEdges, int from, int to,
+                            int[] langRanks) throws IOException {
+        jGenerator.writeFieldName(vocabulary.get(node));
         jGenerator.writeStartObject();
         // nodes
         jGenerator.writeFieldName("nodes");
         jGenerator.writeStartObject();
-        for (Entry<String, Integer> entry: node.getValue().entrySet())
-            jGenerator.writeNumberField(entry.getKey(), entry.getValue());
+        writeLangCounts(jGenerator, nodes.get(node), langRanks);
         jGenerator.writeEndObject();
         // edges
         jGenerator.writeFieldName("edges");
         jGenerator.writeStartObject();
-        if (edges.containsKey(node.getKey())){
-            TreeMap<String, TreeMap<String, Integer>> edgesTree = edges.get(node.getKey());
-            for (Entry<String, TreeMap<String, Integer>> edge: edgesTree.entrySet()){
-                jGenerator.writeFieldName(edge.getKey());
-                jGenerator.writeStartObject();
-                for (Entry<String, Integer> entry: edge.getValue().entrySet()){
-                    jGenerator.writeNumberField(entry.getKey(), entry.getValue());
-                }
-                jGenerator.writeEndObject();
-            }
+        for (int i = from; i < to; i++){
+            int target = order[targetOf(sortedEdges[i])];
+            jGenerator.writeFieldName(vocabulary.get(target));
+            jGenerator.writeStartObject();
+            writeLangCounts(jGenerator, edges.get(edgeIds.get(edgeKey(node, target))), langRanks);
+            jGenerator.writeEndObject();
         }
         jGenerator.writeEndObject();
         jGenerator.writeEndObject();
     }
 
+    /**
+     * writes packed counts as language: count fields (in natural order of language codes)
+     *
+     * @param jGenerator generator instance
+     * @param counts packed counts
+     * @param langRanks ranks of languages in natural order of codes
+     */
+    private void writeLangCounts(JsonGenerator jGenerator, int[] counts, int[] langRanks) throws IOException {
+        int lastRank = -1;
+        for (int written = 0; written < counts.length; written += 2) {
+            // pick the next language by rank, there are only a few languages per ngram
+            int next = -1;
+            for (int i = 0; i < counts.length; i += 2)
+                if (langRanks[counts[i]] > lastRank && (next == -1 || langRanks[counts[i]] < langRanks[counts[next]]))
+                    next = i;
+            jGenerator.writeNumberField(languages.get(counts[next]), counts[next + 1]);
+            lastRank = langRanks[counts[next]];
+        }
+    }
+
     /**
      * writes counter to model
      *
@@ -701,16 +1978,432 @@ public class LIGA {
     private void writeCounter(JsonGenerator jGenerator) throws IOException {
         jGenerator.writeFieldName("counter");
         jGenerator.writeStartObject();
-        for (Entry<String, MutablePair<Integer, Integer>> entry: counter.entrySet()){
-            jGenerator.writeFieldName(entry.getKey());
+        for (int lang: languages.sortedIndices()){
+            jGenerator.writeFieldName(languages.get(lang));
             jGenerator.writeStartObject();
-            jGenerator.writeNumberField("nodes", entry.getValue().getLeft());
-            jGenerator.writeNumberField("edges", entry.getValue().getRight());
+            jGenerator.writeNumberField("nodes", nodesTotal[lang]);
+            jGenerator.writeNumberField("edges", edgesTotal[lang]);
             jGenerator.writeEndObject();
         }
         jGenerator.writeEndObject();
     }
 
+    /**
+     * Saves the model in compact binary format (see {@link #loadModelBinary})
+     *
+     * @param path model path
+     */
+    public void saveModelBinary(String path) {
+        saveModelBinary(path, false);
+    }
+
+    /**
+     * Saves the model in compact binary format, optionally compressed (loadModelBinary detects compression itself)
+     *
+     * @param path       model path
+     * @param compressed if true - the model is compressed with GZIP
+     */
+    public void saveModelBinary(String path, boolean compressed) {
+        saveModelBinary(path, compressed, 0);
+    }
+
+    /**
+     * Saves the model in compact binary format with counts quantized to 8 or 16 bit codes (see {@link #compile(int)}).
+     * The model is loaded by {@link #loadModelBinary} with the dequantized counts
+     *
+     * @param path       model path
+     * @param compressed if true - the model is compressed with GZIP
+     * @param codeBits   code length: 8, 16 or 0 (not quantized)
+     */
+    public void saveModelBinary(String path, boolean compressed, int codeBits) {
+        // training may go on in other threads, the model is saved as of the start of saving
+        LIGA view = snapshot();
+        if (view.modelIsNotEmpty())
+            try (VarIntOutputStream out = new VarIntOutputStream(ModelFiles.create(path, compressed))) {
+                view.writeBinary(out, codeBits);
+            } catch (IOException e) {
+                System.out.println("Unable to save model");
+                e.printStackTrace();
+            }
+    }
+
+    /**
+     * Loads the model saved with {@link #saveModelBinary}, the configured mode (LIGA or logLIGA) is kept,
+     * as by {@link #loadModel} (a warning is printed if the model was saved in the other mode).
+     * If the model is corrupted (checksum or structure), the model stays empty
+     *
+     * @param path model path
+     */
+    public void loadModelBinary(String path) {
+        // loaded model replaces the journaled one, the journal is compacted after loading
+        TrainingJournal journaled = journal;
+        journal = null;
+        try (VarIntInputStream in = new VarIntInputStream(ModelFiles.open(path))) {
+            dropModel();
+            readBinary(in);
+        } catch (Exception e) {
+            dropModel();
+            System.out.println("Unable to load model");
+            e.printStackTrace();
+        }
+        changeVersion();
+        if (journaled != null) {
+            journal = journaled;
+            compactJournal();
+        }
+    }
+
+    /**
+     * Checks if the file is a model in binary format, compressed or not (starts with its magic number)
+     *
+     * @param path model path
+     */
+    public static boolean isBinaryModel(String path) {
+        try (VarIntInputStream in = new VarIntInputStream(ModelFiles.open(path))) {
+            return in.readFixedInt() == BINARY_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the model in binary format:
+     * header (magic, version, ngram length or 0 if lengths differ, mode),
+     * languages (code, total nodes, total edges), ngrams (string table, in order of ids),
+     * node counts of every ngram, edges of every ngram (delta coded sorted targets and counts)
+     * and CRC32 of all the previous bytes. Counts are {language, count} pairs, all numbers are variable length.
+     * Quantized model (version 2) has the code length after the mode and the code tables of the languages
+     * (delta coded dequantized counts of nodes, then of edges) after the languages, counts are {language, code} pairs.
+     * Model of not the full tokenizer (version 3) has the code length (0 - not quantized) and the name of the tokenizer
+     * after the mode
+     *
+     * @param out      output stream
+     * @param codeBits code length: 8, 16 or 0 (not quantized)
+     */
+    private void writeBinary(VarIntOutputStream out, int codeBits) throws IOException {
+        CountQuantizer nodeCodes = codeBits > 0 ? CountQuantizer.of(nodes, languages.size(), codeBits) : null;
+        CountQuantizer edgeCodes = codeBits > 0 ? CountQuantizer.of(edges, languages.size(), codeBits) : null;
+
+        // header
+        int version = !tokenizer.isFull() ? BINARY_TOKENIZER_VERSION
+                : codeBits > 0 ? BINARY_QUANTIZED_VERSION : BINARY_VERSION;
+        out.writeFixedInt(BINARY_MAGIC);
+        out.writeVarInt(version);
+        out.writeVarInt(ngramLength());
+        out.writeVarInt(logLIGA ? 1 : 0);
+        if (version != BINARY_VERSION)
+            out.writeVarInt(codeBits);
+        if (version == BINARY_TOKENIZER_VERSION)
+            out.writeString(tokenizer.getName());
+
+        // languages
+        out.writeVarInt(languages.size());
+        for (int lang = 0; lang < languages.size(); lang++) {
+            out.writeString(languages.get(lang));
+            out.writeVarInt(nodesTotal[lang]);
+            out.writeVarInt(edgesTotal[lang]);
+        }
+        if (codeBits > 0) {
+            writeBinaryTables(out, nodeCodes);
+            writeBinaryTables(out, edgeCodes);
+        }
+
+        // ngrams and nodes
+        out.writeVarInt(vocabulary.size());
+        for (int id = 0; id < vocabulary.size(); id++)
+            out.writeString(vocabulary.get(id));
+        for (int id = 0; id < vocabulary.size(); id++)
+            writeBinaryCounts(out, nodes.get(id), nodeCodes);
+
+        // edges sorted by source, then by target
+        long[] sortedEdges = Arrays.copyOf(edgeKeys, edges.size());
+        Arrays.sort(sortedEdges);
+        out.writeVarInt(sortedEdges.length);
+        int next = 0;
+        for (int id = 0; id < vocabulary.size(); id++) {
+            int first = next;
+            while (next < sortedEdges.length && sourceOf(sortedEdges[next]) == id)
+                next++;
+            out.writeVarInt(next - first);
+            int previous = 0;
+            for (int i = first; i < next; i++) {
+                int target = targetOf(sortedEdges[i]);
+                out.writeVarInt(target - previous);
+                previous = target;
+                writeBinaryCounts(out, edges.get(edgeIds.get(sortedEdges[i])), edgeCodes);
+            }
+        }
+
+        out.writeFixedInt(out.checksum());
+    }
+
+    /**
+     * writes packed counts
+     *
+     * @param out       output stream
+     * @param counts    packed counts
+     * @param quantizer codes of the counts (null - counts are written as is)
+     */
+    private static void writeBinaryCounts(VarIntOutputStream out, int[] counts, CountQuantizer quantizer) throws IOException {
+        out.writeVarInt(counts.length / 2);
+        for (int i = 0; i < counts.length; i += 2) {
+            out.writeVarInt(counts[i]);
+            out.writeVarInt(quantizer == null ? counts[i + 1] : quantizer.code(counts[i], counts[i + 1]));
+        }
+    }
+
+    /**
+     * writes code tables of all the languages (delta coded dequantized counts)
+     *
+     * @param out       output stream
+     * @param quantizer codes of the counts
+     */
+    private static void writeBinaryTables(VarIntOutputStream out, CountQuantizer quantizer) throws IOException {
+        for (int lang = 0; lang < quantizer.languages(); lang++) {
+            int[] values = quantizer.values(lang);
+            out.writeVarInt(values.length);
+            int previous = 0;
+            for (int value : values) {
+                out.writeVarInt(value - previous);
+                previous = value;
+            }
+        }
+    }
+
+    /**
+     * length of the ngrams of the model, 0 if the lengths differ
+     */
+    private int ngramLength() {
+        int length = vocabulary.size() > 0 ? vocabulary.get(0).length() : 0;
+        for (int id = 1; id < vocabulary.size(); id++)
+            if (vocabulary.get(id).length() != length)
+                return 0;
+        return length;
+    }
+
+    /**
+     * Reads the model in binary format (see {@link #writeBinary}) into the empty model
+     *
+     * @param in input stream
+     */
+    private void readBinary(VarIntInputStream in) throws IOException {
+        // header
+        if (in.readFixedInt() != BINARY_MAGIC)
+            throw new IOException("Not a binary LIGA model");
+        int version = in.readVarInt();
+        if (version != BINARY_VERSION && version != BINARY_QUANTIZED_VERSION && version != BINARY_TOKENIZER_VERSION)
+            throw new IOException("Unsupported binary model version: " + version);
+        in.readVarInt(); // ngram length, informational
+        boolean log = in.readVarInt() == 1;
+        int codeBits = version != BINARY_VERSION ? in.readVarInt() : 0;
+        if ((version == BINARY_QUANTIZED_VERSION || codeBits != 0) && codeBits != 8 && codeBits != 16)
+            throw new IOException("Corrupted model code length");
+        try {
+            tokenizer = Tokenizer.forName(version == BINARY_TOKENIZER_VERSION ? in.readString() : Tokenizer.FULL);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        // languages
+        int langs = in.readVarInt();
+        for (int lang = 0; lang < langs; lang++) {
+            if (addLanguage(in.readString()) != lang)
+                throw new IOException("Duplicate language in model");
+            nodesTotal[lang] = in.readVarInt();
+            edgesTotal[lang] = in.readVarInt();
+        }
+        int[][] nodeTable = codeBits > 0 ? readBinaryTables(in, langs, codeBits) : null;
+        int[][] edgeTable = codeBits > 0 ? readBinaryTables(in, langs, codeBits) : null;
+
+        // ngrams and nodes
+        int ngrams = in.readVarInt();
+        for (int id = 0; id < ngrams; id++)
+            if (internNode(in.readString()) != id)
+                throw new IOException("Duplicate ngram in model");
+        for (int id = 0; id < ngrams; id++)
+            nodes.set(id, readBinaryCounts(in, langs, nodeTable));
+
+        // edges
+        int edgesNumber = in.readVarInt();
+        int read = 0;
+        for (int id = 0; id < ngrams; id++) {
+            int targets = in.readVarInt();
+            int target = 0;
+            for (int i = 0; i < targets; i++) {
+                target += in.readVarInt();
+                if (target < 0 || target >= ngrams || read++ >= edgesNumber)
+                    throw new IOException("Corrupted model edges");
+                int edge = internEdge(id, target);
+                edges.set(edge, readBinaryCounts(in, langs, edgeTable));
+            }
+        }
+        if (read != edgesNumber)
+            throw new IOException("Corrupted model edges");
+
+        int checksum = in.checksum();
+        if (in.readFixedInt() != checksum)
+            throw new IOException("Model checksum mismatch");
+        // counts do not depend on the mode, the configured one is kept (as by loadModel)
+        if (log != logLIGA)
+            System.out.println("Model was saved in " + (log ? "logLIGA" : "LIGA") + " mode, "
+                    + (logLIGA ? "logLIGA" : "LIGA") + " mode is kept");
+    }
+
+    /**
+     * reads code tables of all the languages
+     *
+     * @param in       input stream
+     * @param langs    number of languages
+     * @param codeBits code length
+     * @return dequantized counts of the codes, indexed by language
+     */
+    private static int[][] readBinaryTables(VarIntInputStream in, int langs, int codeBits) throws IOException {
+        int[][] tables = new int[langs][];
+        for (int lang = 0; lang < langs; lang++) {
+            int size = in.readVarInt();
+            if (size < 0 || size > 1 << codeBits)
+                throw new IOException("Corrupted model code tables");
+            tables[lang] = new int[size];
+            int value = 0;
+            for (int code = 0; code < size; code++)
+                tables[lang][code] = value += in.readVarInt();
+        }
+        return tables;
+    }
+
+    /**
+     * reads packed counts
+     *
+     * @param in    input stream
+     * @param langs number of languages
+     * @param table dequantized counts of the codes, indexed by language (null - counts are read as is)
+     */
+    private static int[] readBinaryCounts(VarIntInputStream in, int langs, int[][] table) throws IOException {
+        int size = in.readVarInt();
+        if (size < 0 || size > langs)
+            throw new IOException("Corrupted model counts");
+        if (size == 0)
+            return LangCounts.EMPTY;
+        int[] counts = new int[size * 2];
+        for (int i = 0; i < counts.length; i += 2) {
+            counts[i] = in.readVarInt();
+            counts[i + 1] = in.readVarInt();
+            // languages are sorted
+            if (counts[i] < 0 || counts[i] >= langs || (i > 0 && counts[i] <= counts[i - 2]))
+                throw new IOException("Corrupted model counts");
+            if (table != null) {
+                if (counts[i + 1] < 0 || counts[i + 1] >= table[counts[i]].length)
+                    throw new IOException("Corrupted model counts");
+                counts[i + 1] = table[counts[i]][counts[i + 1]];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Saves the model in the flat layout which is classified in place, see {@link MappedLIGA}.
+     * All the sections are arrays of big-endian ints (language and ngram strings - of chars at the end):
+     * header (magic, version, mode, numbers of languages, ngrams, edges), node and edge totals,
+     * string offsets of languages and of ngrams (sorted), node counts of every ngram (offsets and packed counts),
+     * edges of every ngram (offsets, sorted targets, count offsets and packed counts), language and ngram chars
+     * (and the name of the tokenizer, if it is not the full one)
+     *
+     * @param path model path
+     */
+    public void saveModelMapped(String path) {
+        // training may go on in other threads, the model is saved as of the start of saving
+        LIGA view = snapshot();
+        if (view.modelIsNotEmpty())
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+                view.writeMapped(out);
+            } catch (IOException e) {
+                System.out.println("Unable to save model");
+                e.printStackTrace();
+            }
+    }
+
+    /**
+     * writes the model in the flat layout (see {@link #saveModelMapped})
+     *
+     * @param out output stream
+     */
+    private void writeMapped(DataOutputStream out) throws IOException {
+        int langs = languages.size();
+        int ngrams = vocabulary.size();
+        // ngrams are sorted, so they can be found with binary search, graph is indexed by ngram ranks
+        int[] order = vocabulary.sortedIds();
+        int[] rank = new int[ngrams];
+        for (int i = 0; i < ngrams; i++)
+            rank[order[i]] = i;
+        long[] sortedEdges = new long[edges.size()];
+        for (int edge = 0; edge < sortedEdges.length; edge++)
+            sortedEdges[edge] = edgeKey(rank[sourceOf(edgeKeys[edge])], rank[targetOf(edgeKeys[edge])]);
+        Arrays.sort(sortedEdges);
+
+        // header
+        out.writeInt(MappedLIGA.MAGIC);
+        out.writeInt(tokenizer.isFull() ? MappedLIGA.VERSION : MappedLIGA.TOKENIZER_VERSION);
+        out.writeInt(logLIGA ? 1 : 0);
+        out.writeInt(langs);
+        out.writeInt(ngrams);
+        out.writeInt(sortedEdges.length);
+
+        // totals
+        for (int lang = 0; lang < langs; lang++)
+            out.writeInt(nodesTotal[lang]);
+        for (int lang = 0; lang < langs; lang++)
+            out.writeInt(edgesTotal[lang]);
+
+        // string offsets
+        int offset = 0;
+        out.writeInt(offset);
+        for (int lang = 0; lang < langs; lang++)
+            out.writeInt(offset += languages.get(lang).length());
+        offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < ngrams; i++)
+            out.writeInt(offset += vocabulary.get(order[i]).length());
+
+        // nodes
+        offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < ngrams; i++)
+            out.writeInt(offset += nodes.get(order[i]).length);
+        for (int i = 0; i < ngrams; i++)
+            for (int value : nodes.get(order[i]))
+                out.writeInt(value);
+
+        // edges
+        int[] edgeOffsets = new int[ngrams + 1];
+        for (long edge : sortedEdges)
+            edgeOffsets[sourceOf(edge) + 1]++;
+        for (int i = 0; i < ngrams; i++)
+            edgeOffsets[i + 1] += edgeOffsets[i];
+        for (int value : edgeOffsets)
+            out.writeInt(value);
+        for (long edge : sortedEdges)
+            out.writeInt(targetOf(edge));
+        offset = 0;
+        out.writeInt(offset);
+        for (long edge : sortedEdges)
+            out.writeInt(offset += edges.get(edgeIds.get(edgeKey(order[sourceOf(edge)], order[targetOf(edge)]))).length);
+        for (long edge : sortedEdges)
+            for (int value : edges.get(edgeIds.get(edgeKey(order[sourceOf(edge)], order[targetOf(edge)]))))
+                out.writeInt(value);
+
+        // strings
+        for (int lang = 0; lang < langs; lang++)
+            out.writeChars(languages.get(lang));
+        for (int i = 0; i < ngrams; i++)
+            out.writeChars(vocabulary.get(order[i]));
+
+        // model of not the full tokenizer (version 2) ends with the length of the tokenizer name and the name
+        if (!tokenizer.isFull()) {
+            out.writeInt(tokenizer.getName().length());
+            out.writeChars(tokenizer.getName());
+        }
+    }
+
     public static class LIGABuilder {
 
         // confidence threshold (if lower - language is still UNKNOWN)
@@ -719,6 +2412,14 @@ public class LIGA {
         private int maxSearchDepth = 1000;
         // flag of model, if true - logLIGA, false - LIGA
         private boolean logLIGA = true;
+        // number of threads for dataset training (1 - sequential)
+        private int trainingThreads = 1;
+        // preprocessing of the documents
+        private Tokenizer tokenizer = Tokenizer.forName(Tokenizer.FULL);
+        // cache of classification results (null - no cache)
+        private ClassificationCache cache = null;
+        // journal is compacted on checkpoint when it is longer, bytes (0 - only by compactJournal)
+        private long journalCompactionBytes = 64L << 20;
 
         public LIGABuilder setMaxSearchDepth(int maxSearchDepth) {
             this.maxSearchDepth = maxSearchDepth;
@@ -730,6 +2431,26 @@ public class LIGA {
             return this;
         }
 
+        public LIGABuilder setTrainingThreads(int trainingThreads) {
+            this.trainingThreads = trainingThreads;
+            return this;
+        }
+
+        public LIGABuilder setTokenizer(Tokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+            return this;
+        }
+
+        public LIGABuilder setClassificationCache(ClassificationCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public LIGABuilder setJournalCompactionBytes(long journalCompactionBytes) {
+            this.journalCompactionBytes = journalCompactionBytes;
+            return this;
+        }
+
         /**
          * builder
          */
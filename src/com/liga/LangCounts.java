@@ -0,0 +1,123 @@
+/*
+ * Title: LangCounts.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.Arrays;
+
+/**
+ * Packed sparse per-language counts of one node or edge.
+ * Layout: {language, count, language, count, ...}, pairs are sorted by language index.
+ * Most ngrams occur in one or two languages only, so this is much smaller than a dense array or a map.
+ * Explicit zero counts are kept (they are present in models), absent languages have no pair
+ */
+final class LangCounts {
+
+    static final int[] EMPTY = new int[0];
+
+    private LangCounts() {
+    }
+
+    /**
+     * number of languages in packed counts
+     *
+     * @param counts packed counts
+     */
+    static int size(int[] counts) {
+        return counts.length >> 1;
+    }
+
+    /**
+     * returns position of the pair of the language or (-(insertion point) - 1) if there is no such language
+     *
+     * @param counts packed counts
+     * @param lang   language index
+     */
+    static int find(int[] counts, int lang) {
+        int lo = 0;
+        int hi = (counts.length >> 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midLang = counts[mid << 1];
+            if (midLang < lang)
+                lo = mid + 1;
+            else if (midLang > lang)
+                hi = mid - 1;
+            else
+                return mid << 1;
+        }
+        return -((lo << 1) + 1);
+    }
+
+    /**
+     * returns count of the language or -1 if there is no such language
+     *
+     * @param counts packed counts
+     * @param lang   language index
+     */
+    static int get(int[] counts, int lang) {
+        int pos = find(counts, lang);
+        return pos < 0 ? -1 : counts[pos + 1];
+    }
+
+    /**
+     * increases count of the language (absent language starts with 0)
+     *
+     * @param counts packed counts
+     * @param lang   language index
+     * @param delta  increment
+     * @return updated counts (a new array if the language was absent)
+     */
+    static int[] add(int[] counts, int lang, int delta) {
+        int pos = find(counts, lang);
+        if (pos >= 0) {
+            counts[pos + 1] += delta;
+            return counts;
+        }
+        return insert(counts, -pos - 1, lang, delta);
+    }
+
+    /**
+     * sets count of the language
+     *
+     * @param counts packed counts
+     * @param lang   language index
+     * @param value  count
+     * @return updated counts (a new array if the language was absent)
+     */
+    static int[] set(int[] counts, int lang, int value) {
+        int pos = find(counts, lang);
+        if (pos >= 0) {
+            counts[pos + 1] = value;
+            return counts;
+        }
+        return insert(counts, -pos - 1, lang, value);
+    }
+
+    /**
+     * sets count of the language only if the language is absent
+     *
+     * @param counts packed counts
+     * @param lang   language index
+     * @param value  count
+     * @return updated counts (a new array if the language was absent)
+     */
+    static int[] putIfAbsent(int[] counts, int lang, int value) {
+        int pos = find(counts, lang);
+        if (pos >= 0)
+            return counts;
+        return insert(counts, -pos - 1, lang, value);
+    }
+
+    private static int[] insert(int[] counts, int pos, int lang, int value) {
+        int[] out = Arrays.copyOf(counts, counts.length + 2);
+        System.arraycopy(counts, pos, out, pos + 2, counts.length - pos);
+        out[pos] = lang;
+        out[pos + 1] = value;
+        return out;
+    }
+}
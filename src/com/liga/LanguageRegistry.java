@@ -0,0 +1,115 @@
+/*
+ * Title: LanguageRegistry.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps language codes to small indices (0, 1, 2, ... in order of appearance),
+ * so the per-language counts and scores can be kept in arrays
+ */
+final class LanguageRegistry {
+
+    private String[] codes = new String[8]; // index -> code
+    private int size = 0;
+    private Map<String, Integer> indices = new HashMap<>(); // code -> index
+
+    /**
+     * number of languages
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * returns language code by index
+     *
+     * @param index language index
+     */
+    String get(int index) {
+        return codes[index];
+    }
+
+    /**
+     * language codes, indexed by language (backing array, may be longer than size(), must not be modified)
+     */
+    String[] codes() {
+        return codes;
+    }
+
+    /**
+     * returns index of the language or -1 if language is unknown
+     *
+     * @param code language code
+     */
+    int indexOf(String code) {
+        Integer index = indices.get(code);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * returns index of the language, registers the language if it is unknown
+     *
+     * @param code language code
+     */
+    int add(String code) {
+        Integer index = indices.get(code);
+        if (index != null)
+            return index;
+        if (size == codes.length)
+            codes = Arrays.copyOf(codes, size << 1);
+        codes[size] = code;
+        indices.put(code, size);
+        return size++;
+    }
+
+    /**
+     * ranks of the languages in natural order of codes (index -> rank)
+     */
+    int[] ranks() {
+        String[] sorted = Arrays.copyOf(codes, size);
+        Arrays.sort(sorted);
+        int[] ranks = new int[size];
+        for (int rank = 0; rank < size; rank++)
+            ranks[indices.get(sorted[rank])] = rank;
+        return ranks;
+    }
+
+    /**
+     * indices of the languages in natural order of codes
+     */
+    int[] sortedIndices() {
+        int[] ranks = ranks();
+        int[] sorted = new int[size];
+        for (int index = 0; index < size; index++)
+            sorted[ranks[index]] = index;
+        return sorted;
+    }
+
+    /**
+     * returns an independent copy of the registry
+     */
+    LanguageRegistry copy() {
+        LanguageRegistry out = new LanguageRegistry();
+        out.codes = Arrays.copyOf(codes, codes.length);
+        out.size = size;
+        out.indices = new HashMap<>(indices);
+        return out;
+    }
+
+    /**
+     * removes all the languages
+     */
+    void clear() {
+        codes = new String[8];
+        size = 0;
+        indices.clear();
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Title: MappedLIGA.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only LIGA (logLIGA) classifier working directly on the memory-mapped model file,
+ * saved with {@link LIGA#saveModelMapped}. Nothing but the language table is copied to the heap,
+ * so opening the model takes constant time and processes on one host share the page cache.
+ * Ngrams are sorted in the file and found with binary search, node and edge counts are read in place.
+ *
+ * Instances are immutable and thread-safe (buffers are read only with absolute gets).
+ * The file must not be changed while it is mapped, the mapping is released when the instance is garbage collected.
+ * Model files are limited to 2 GB
+ */
+public final class MappedLIGA {
+
+    // "LIGM" magic and version of the layout
+    static final int MAGIC = 0x4C49474D;
+    static final int VERSION = 1;
+    // layout with the name of the tokenizer at the end (models of not the full tokenizer)
+    static final int TOKENIZER_VERSION = 2;
+
+    // confidence threshold (if lower - language is still UNKNOWN)
+    private final double threshold;
+    // max search depth
+    private final int maxSearchDepth;
+    // flag of model, if true - logLIGA, false - LIGA
+    private final boolean logLIGA;
+    // preprocessing of the raw messages, the same as of the training
+    private final Tokenizer tokenizer;
+    // language codes, indexed by language
+    private final String[] languages;
+    // total numbers of nodes and edges and their logs, indexed by language
+    private final int[] nodesTotal;
+    private final int[] edgesTotal;
+    private final double[] logNodesTotal;
+    private final double[] logEdgesTotal;
+    // sorted ngrams, ngram of rank i is ngramChars[ngramOffsets[i] .. ngramOffsets[i + 1])
+    private final int ngrams;
+    private final IntBuffer ngramOffsets;
+    private final CharBuffer ngramChars;
+    // packed node counts of rank i are nodeCounts[nodeOffsets[i] .. nodeOffsets[i + 1])
+    private final IntBuffer nodeOffsets;
+    private final IntBuffer nodeCounts;
+    // edges of rank i are edgeTargets[edgeOffsets[i] .. edgeOffsets[i + 1]), targets are sorted
+    private final IntBuffer edgeOffsets;
+    private final IntBuffer edgeTargets;
+    // packed counts of edge j are edgeCounts[edgeCountOffsets[j] .. edgeCountOffsets[j + 1])
+    private final IntBuffer edgeCountOffsets;
+    private final IntBuffer edgeCounts;
+    // ngram lookup of the prepared texts (see PreparedText), ranks of the mapped model never change
+    private final NgramIndex index = new NgramIndex() {
+        private final long stamp = ClassificationCache.nextVersion();
+
+        @Override
+        public long stamp() {
+            return stamp;
+        }
+
+        @Override
+        public int size() {
+            return ngrams;
+        }
+
+        @Override
+        public int idOf(NgramCursor ngram) {
+            return rankOf(ngram);
+        }
+    };
+
+    /**
+     * Maps the model file
+     *
+     * @param path           model path
+     * @param threshold      confidence threshold
+     * @param maxSearchDepth max search depth
+     */
+    public static MappedLIGA open(String path, double threshold, int maxSearchDepth) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Mapped model is larger than 2 GB");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new MappedLIGA(buffer, threshold, maxSearchDepth);
+    }
+
+    private MappedLIGA(ByteBuffer buffer, double threshold, int maxSearchDepth) throws IOException {
+        this.threshold = threshold;
+        this.maxSearchDepth = maxSearchDepth;
+        if (buffer.capacity() < 24 || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a mapped LIGA model");
+        int version = buffer.getInt(4);
+        if (version != VERSION && version != TOKENIZER_VERSION)
+            throw new IOException("Unsupported mapped model version: " + version);
+        this.logLIGA = buffer.getInt(8) == 1;
+        int langs = buffer.getInt(12);
+        this.ngrams = buffer.getInt(16);
+        int edges = buffer.getInt(20);
+
+        // sections follow each other, sizes of the count sections are the last values of their offsets
+        int position = 24;
+        IntBuffer totals = ints(buffer, position, 2 * langs);
+        position += 8 * langs;
+        IntBuffer langOffsets = ints(buffer, position, langs + 1);
+        position += 4 * (langs + 1);
+        this.ngramOffsets = ints(buffer, position, ngrams + 1);
+        position += 4 * (ngrams + 1);
+        this.nodeOffsets = ints(buffer, position, ngrams + 1);
+        position += 4 * (ngrams + 1);
+        this.nodeCounts = ints(buffer, position, nodeOffsets.get(ngrams));
+        position += 4 * nodeOffsets.get(ngrams);
+        this.edgeOffsets = ints(buffer, position, ngrams + 1);
+        position += 4 * (ngrams + 1);
+        this.edgeTargets = ints(buffer, position, edges);
+        position += 4 * edges;
+        this.edgeCountOffsets = ints(buffer, position, edges + 1);
+        position += 4 * (edges + 1);
+        this.edgeCounts = ints(buffer, position, edgeCountOffsets.get(edges));
+        position += 4 * edgeCountOffsets.get(edges);
+        CharBuffer langChars = chars(buffer, position, langOffsets.get(langs));
+        position += 2 * langOffsets.get(langs);
+        this.ngramChars = chars(buffer, position, ngramOffsets.get(ngrams));
+        position += 2 * ngramOffsets.get(ngrams);
+        if (version == TOKENIZER_VERSION) {
+            int nameLength = ints(buffer, position, 1).get(0);
+            try {
+                this.tokenizer = Tokenizer.forName(chars(buffer, position + 4, nameLength).toString());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        } else {
+            this.tokenizer = Tokenizer.forName(Tokenizer.FULL);
+        }
+
+        // language table is small, it is copied to the heap
+        this.languages = new String[langs];
+        this.nodesTotal = new int[langs];
+        this.edgesTotal = new int[langs];
+        for (int lang = 0; lang < langs; lang++) {
+            int from = langOffsets.get(lang);
+            languages[lang] = langChars.subSequence(from, langOffsets.get(lang + 1)).toString();
+            nodesTotal[lang] = totals.get(lang);
+            edgesTotal[lang] = totals.get(langs + lang);
+        }
+        this.logNodesTotal = Scoring.logTotals(nodesTotal, langs);
+        this.logEdgesTotal = Scoring.logTotals(edgesTotal, langs);
+    }
+
+    /**
+     * int view of the buffer section
+     *
+     * @param buffer buffer
+     * @param offset section offset, bytes
+     * @param length section length, ints
+     */
+    private static IntBuffer ints(ByteBuffer buffer, int offset, int length) throws IOException {
+        return section(buffer, offset, 4L * length).asIntBuffer();
+    }
+
+    /**
+     * char view of the buffer section
+     *
+     * @param buffer buffer
+     * @param offset section offset, bytes
+     * @param length section length, chars
+     */
+    private static CharBuffer chars(ByteBuffer buffer, int offset, int length) throws IOException {
+        return section(buffer, offset, 2L * length).asCharBuffer();
+    }
+
+    private static ByteBuffer section(ByteBuffer buffer, int offset, long bytes) throws IOException {
+        if (bytes < 0 || offset + bytes > buffer.capacity())
+            throw new IOException("Mapped model is truncated");
+        ByteBuffer section = buffer.duplicate();
+        section.limit((int) (offset + bytes));
+        section.position(offset);
+        return section.slice();
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getMaxSearchDepth() {
+        return maxSearchDepth;
+    }
+
+    public boolean isLogLIGA() {
+        return logLIGA;
+    }
+
+    /**
+     * number of ngrams (nodes) in the model
+     */
+    public int getNodesNumber() {
+        return ngrams;
+    }
+
+    /**
+     * number of edges in the model
+     */
+    public int getEdgesNumber() {
+        return edgeTargets.capacity();
+    }
+
+    /**
+     * tokenizer of the raw messages (classifyXxxText), the same as of the model
+     */
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * Classifies a message and returns the most probable language
+     *
+     * @param doc         original document
+     * @param ngramLength n
+     */
+    public String classifyMostProbable(String doc, int ngramLength) {
+        return classifyMostProbable(new NgramCursor(doc, ngramLength), null);
+    }
+
+    /**
+     * Preprocesses a raw message and returns the most probable language, the same as
+     * classifyMostProbable(getTokenizer().clean(text), ngramLength) without intermediate strings
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public String classifyMostProbableText(String text, int ngramLength) {
+        return classifyMostProbable(NgramCursor.preprocessed(tokenizer, text, ngramLength), null);
+    }
+
+    /**
+     * Returns the most probable language of the prepared document, the same as
+     * classifyMostProbable(text.getDoc(), text.getNgramLength()) without preprocessing
+     *
+     * @param text prepared document
+     */
+    public String classifyMostProbable(PreparedText text) {
+        text.checkTokenizer(tokenizer);
+        return classifyMostProbable(null, text.ngramIds(index));
+    }
+
+    /**
+     * @param ngrams cursor over document ngrams (not used if ids are known)
+     * @param ids    ngram ids of the prepared text (null - ngrams are looked up)
+     */
+    private String classifyMostProbable(NgramCursor ngrams, int[] ids) {
+        if (!modelIsNotEmpty())
+            return "EMPTY MODEL";
+        double[] scores = new double[languages.length];
+        boolean[] scored = new boolean[languages.length];
+        if (ids != null)
+            calcScores(ids, scores, scored);
+        else
+            calcScores(ngrams, scores, scored);
+        return Scoring.bestLanguage(scores, scored, languages, threshold);
+    }
+
+    /**
+     * Gets scores for a given document
+     *
+     * @param doc         document
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAll(String doc, int ngramLength) {
+        return classifyAll(new NgramCursor(doc, ngramLength), null);
+    }
+
+    /**
+     * Preprocesses a raw message and gets its scores, the same as
+     * classifyAll(getTokenizer().clean(text), ngramLength) without intermediate strings
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAllText(String text, int ngramLength) {
+        return classifyAll(NgramCursor.preprocessed(tokenizer, text, ngramLength), null);
+    }
+
+    /**
+     * Gets scores of the prepared document, the same as classifyAll(text.getDoc(), text.getNgramLength())
+     * without preprocessing
+     *
+     * @param text prepared document
+     */
+    public Map<String, Double> classifyAll(PreparedText text) {
+        text.checkTokenizer(tokenizer);
+        return classifyAll(null, text.ngramIds(index));
+    }
+
+    /**
+     * @param ngrams cursor over document ngrams (not used if ids are known)
+     * @param ids    ngram ids of the prepared text (null - ngrams are looked up)
+     */
+    private Map<String, Double> classifyAll(NgramCursor ngrams, int[] ids) {
+        if (!modelIsNotEmpty())
+            return new HashMap<>();
+        double[] scores = new double[languages.length];
+        boolean[] scored = new boolean[languages.length];
+        if (ids != null)
+            calcScores(ids, scores, scored);
+        else
+            calcScores(ngrams, scores, scored);
+        return Scoring.toMap(scores, scored, languages);
+    }
+
+    /**
+     * Matches path of document ngrams against the graph and calculates scores
+     *
+     * @param ngrams ngrams of document
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     */
+    private void calcScores(NgramCursor ngrams, double[] scores, boolean[] scored) {
+        // ngram i is counted when ngram i + 1 (target of its edge) is known
+        int last = Math.min(ngrams.count() - 1, maxSearchDepth);
+        int source = -1;
+        for (int i = 0; i <= last + 1 && ngrams.next(); i++) {
+            int target = rankOf(ngrams);
+            if (i > 0)
+                countNgram(source, target, scores, scored);
+            source = target;
+        }
+        // there is no edge after the last node
+        if (last == ngrams.count() - 1 && last >= 0)
+            countNgram(source, -1, scores, scored);
+    }
+
+    /**
+     * Same as {@link #calcScores(NgramCursor, double[], boolean[])}, ngram ranks of the document are already known
+     * (prepared text)
+     *
+     * @param ids    ngram ranks of the document (-1 for unknown ngram)
+     * @param scores scores, indexed by language (output)
+     * @param scored flags of languages which got any counts (output)
+     */
+    private void calcScores(int[] ids, double[] scores, boolean[] scored) {
+        int last = Math.min(ids.length - 1, maxSearchDepth);
+        for (int i = 0; i <= last; i++)
+            countNgram(ids[i], i + 1 < ids.length ? ids[i + 1] : -1, scores, scored);
+    }
+
+    /**
+     * Adds counts of the node and of the edge to the next ngram to the language scores
+     *
+     * @param source ngram rank (-1 for unknown ngram)
+     * @param target next ngram rank (-1 for unknown or absent ngram)
+     * @param scores scores, indexed by language
+     * @param scored flags of languages which got any counts
+     */
+    private void countNgram(int source, int target, double[] scores, boolean[] scored) {
+        // unknown ngrams and their edges are not counted
+        if (source == -1)
+            return;
+        int edge = findEdge(source, target);
+        Scoring.addNgram(scores, scored,
+                nodeCounts, nodeOffsets.get(source), nodeOffsets.get(source + 1),
+                edgeCounts, edge == -1 ? 0 : edgeCountOffsets.get(edge), edge == -1 ? 0 : edgeCountOffsets.get(edge + 1),
+                nodesTotal, edgesTotal, logNodesTotal, logEdgesTotal, logLIGA);
+    }
+
+    /**
+     * returns rank of the current ngram of the cursor or -1 if ngram is unknown (binary search)
+     *
+     * @param ngram cursor
+     */
+    private int rankOf(NgramCursor ngram) {
+        char[] chars = ngram.chars();
+        int offset = ngram.offset();
+        int length = ngram.length();
+        int lo = 0;
+        int hi = ngrams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, chars, offset, length);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * compares ngram of the rank with the chars (same order as String.compareTo)
+     *
+     * @param rank   ngram rank
+     * @param chars  chars
+     * @param offset first char
+     * @param length number of chars
+     */
+    private int compare(int rank, char[] chars, int offset, int length) {
+        int from = ngramOffsets.get(rank);
+        int size = ngramOffsets.get(rank + 1) - from;
+        int common = Math.min(size, length);
+        for (int i = 0; i < common; i++) {
+            char c = ngramChars.get(from + i);
+            if (c != chars[offset + i])
+                return c - chars[offset + i];
+        }
+        return size - length;
+    }
+
+    /**
+     * returns index of the edge or -1 if there is no such edge
+     *
+     * @param source source ngram rank
+     * @param target target ngram rank (-1 for unknown)
+     */
+    private int findEdge(int source, int target) {
+        if (target == -1)
+            return -1;
+        int lo = edgeOffsets.get(source);
+        int hi = edgeOffsets.get(source + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midTarget = edgeTargets.get(mid);
+            if (midTarget < target)
+                lo = mid + 1;
+            else if (midTarget > target)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private boolean modelIsNotEmpty() {
+        return ngrams > 0 && languages.length > 0;
+    }
+}
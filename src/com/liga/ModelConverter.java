@@ -0,0 +1,58 @@
+/*
+ * Title: ModelConverter.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+/**
+ * Converts models between JSON (.liga) and binary formats
+ */
+public class ModelConverter {
+
+    /**
+     * Converts JSON model to binary format
+     *
+     * @param jsonPath   JSON model path
+     * @param binaryPath binary model path
+     * @param logLIGA    mode written to the header of the binary model, if true - logLIGA, false - LIGA.
+     *                   It is only advisory: loaders keep their configured mode and warn if it differs
+     */
+    public static void jsonToBinary(String jsonPath, String binaryPath, boolean logLIGA) {
+        LIGA liga = new LIGA.LIGABuilder(0.0).setLogLIGA(logLIGA).build();
+        liga.loadModel(jsonPath);
+        liga.saveModelBinary(binaryPath);
+    }
+
+    /**
+     * Converts binary model to JSON format
+     *
+     * @param binaryPath binary model path
+     * @param jsonPath   JSON model path
+     */
+    public static void binaryToJson(String binaryPath, String jsonPath) {
+        LIGA liga = new LIGA.LIGABuilder(0.0).build();
+        liga.loadModelBinary(binaryPath);
+        liga.saveModel(jsonPath);
+    }
+
+    /**
+     * Usage: ModelConverter input output [liga]
+     * Binary input is converted to JSON, JSON input - to binary. The header of the binary model records logLIGA mode
+     * (LIGA if "liga" is given), the mode is only advisory: loaders keep their configured mode and warn if it differs
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: ModelConverter input output [liga]");
+            System.out.println("  liga - record LIGA instead of logLIGA in the binary header (advisory, loaders keep their mode and warn)");
+            return;
+        }
+        if (LIGA.isBinaryModel(args[0])) {
+            binaryToJson(args[0], args[1]);
+        } else {
+            jsonToBinary(args[0], args[1], !(args.length > 2 && args[2].equals("liga")));
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Title: ModelHolder.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serving model with zero-downtime updates. A new model is loaded and compiled in the background
+ * while the current one keeps serving, then it is published with one atomic reference swap.
+ * Readers get the current {@link CompiledLIGA} snapshot and finish their work on it even if the model is swapped
+ * meanwhile, so they never see an empty or half-loaded graph. If loading fails, the current model stays
+ */
+public class ModelHolder {
+
+    // settings of loaded models
+    private final double threshold;
+    private final int maxSearchDepth;
+    private final boolean logLIGA;
+    private final int codeBits;
+    // cache of classification results (null - no cache), results of swapped out models are not used
+    private final ClassificationCache cache;
+
+    private final AtomicReference<CompiledLIGA> model = new AtomicReference<>();
+    // one model is loaded at a time, reloads are queued
+    private final ExecutorService loader;
+
+    // metrics
+    private final AtomicLong swaps = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastLoadNanos = 0; // load and compilation of the last swapped model
+    private volatile long lastSwapNanos = 0; // publication of the last swapped model
+    private volatile long lastSwapTime = 0; // time of the last swap, ms since epoch
+
+    public ModelHolder(ModelHolderBuilder builder) {
+        this.threshold = builder.threshold;
+        this.maxSearchDepth = builder.maxSearchDepth;
+        this.logLIGA = builder.logLIGA;
+        this.codeBits = builder.codeBits;
+        this.cache = builder.cache;
+        this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "liga-model-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * current model (null if no model was loaded yet), use one snapshot for several consistent calls
+     */
+    public CompiledLIGA get() {
+        return model.get();
+    }
+
+    /**
+     * Classifies a message with the current model and returns the most probable language
+     *
+     * @param doc         document
+     * @param ngramLength n
+     */
+    public String classifyMostProbable(String doc, int ngramLength) {
+        CompiledLIGA current = model.get();
+        return current == null ? "EMPTY MODEL"
+                : (String) classify(current, ClassificationCache.MOST_PROBABLE, doc, ngramLength);
+    }
+
+    /**
+     * Gets scores for a given document with the current model
+     *
+     * @param doc         document
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAll(String doc, int ngramLength) {
+        CompiledLIGA current = model.get();
+        return current == null ? new HashMap<String, Double>()
+                : scoresOf(classify(current, ClassificationCache.ALL, doc, ngramLength));
+    }
+
+    /**
+     * Preprocesses a raw message and classifies it with the current model, see CompiledLIGA.classifyMostProbableText
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public String classifyMostProbableText(String text, int ngramLength) {
+        CompiledLIGA current = model.get();
+        return current == null ? "EMPTY MODEL"
+                : (String) classify(current, ClassificationCache.MOST_PROBABLE_TEXT, text, ngramLength);
+    }
+
+    /**
+     * Preprocesses a raw message and gets its scores with the current model, see CompiledLIGA.classifyAllText
+     *
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public Map<String, Double> classifyAllText(String text, int ngramLength) {
+        CompiledLIGA current = model.get();
+        return current == null ? new HashMap<String, Double>()
+                : scoresOf(classify(current, ClassificationCache.ALL_TEXT, text, ngramLength));
+    }
+
+    /**
+     * Classifies the prepared document with the current model, see CompiledLIGA.classifyMostProbable(PreparedText)
+     *
+     * @param text prepared document
+     */
+    public String classifyMostProbable(PreparedText text) {
+        CompiledLIGA current = model.get();
+        return current == null ? "EMPTY MODEL"
+                : (String) classify(current, ClassificationCache.MOST_PROBABLE, text.getDoc(), text.getNgramLength(), text);
+    }
+
+    /**
+     * Gets scores of the prepared document with the current model, see CompiledLIGA.classifyAll(PreparedText)
+     *
+     * @param text prepared document
+     */
+    public Map<String, Double> classifyAll(PreparedText text) {
+        CompiledLIGA current = model.get();
+        return current == null ? new HashMap<String, Double>()
+                : scoresOf(classify(current, ClassificationCache.ALL, text.getDoc(), text.getNgramLength(), text));
+    }
+
+    private Object classify(CompiledLIGA current, int kind, String doc, int ngramLength) {
+        return classify(current, kind, doc, ngramLength, null);
+    }
+
+    /**
+     * Classification result of the kind, taken from the cache if it was computed by this model
+     *
+     * @param current     current model
+     * @param kind        kind of the result (see ClassificationCache)
+     * @param doc         document or raw message
+     * @param ngramLength n
+     * @param prepared    prepared document (or null)
+     */
+    private Object classify(CompiledLIGA current, int kind, String doc, int ngramLength, PreparedText prepared) {
+        // checked before the cache lookup, as by the models
+        if (prepared != null)
+            prepared.checkTokenizer(current.getTokenizer());
+        Object result = cache != null ? cache.get(current.version(), kind, doc, ngramLength) : null;
+        if (result == null) {
+            if (prepared != null && kind == ClassificationCache.MOST_PROBABLE)
+                result = current.classifyMostProbable(prepared);
+            else if (prepared != null)
+                result = current.classifyAll(prepared);
+            else if (kind == ClassificationCache.MOST_PROBABLE)
+                result = current.classifyMostProbable(doc, ngramLength);
+            else if (kind == ClassificationCache.MOST_PROBABLE_TEXT)
+                result = current.classifyMostProbableText(doc, ngramLength);
+            else if (kind == ClassificationCache.ALL)
+                result = current.classifyAll(doc, ngramLength);
+            else
+                result = current.classifyAllText(doc, ngramLength);
+            if (cache != null)
+                cache.put(current.version(), kind, doc, ngramLength, result);
+        }
+        return result;
+    }
+
+    /**
+     * scores for the caller, cached scores are copied
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Double> scoresOf(Object result) {
+        Map<String, Double> scores = (Map<String, Double>) result;
+        return cache != null ? new HashMap<>(scores) : scores;
+    }
+
+    /**
+     * cache of classification results (null - no cache)
+     */
+    public ClassificationCache getClassificationCache() {
+        return cache;
+    }
+
+    /**
+     * Loads the model (JSON or binary, compressed or not) in the background and swaps it in
+     *
+     * @param path model path
+     * @return future of the result: true if the model was swapped in, false if loading failed
+     */
+    public Future<Boolean> reload(final String path) {
+        return loader.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return load(path);
+            }
+        });
+    }
+
+    /**
+     * Loads the model in the calling thread and swaps it in
+     *
+     * @param path model path
+     * @return true if the model was swapped in, false if loading failed
+     */
+    public boolean load(String path) {
+        long t0 = System.nanoTime();
+        LIGA liga = new LIGA.LIGABuilder(threshold).setMaxSearchDepth(maxSearchDepth).setLogLIGA(logLIGA).build();
+        if (LIGA.isBinaryModel(path))
+            liga.loadModelBinary(path);
+        else
+            liga.loadModel(path);
+        CompiledLIGA next = liga.compile(codeBits);
+        if (next.getNodesNumber() == 0) {
+            failures.incrementAndGet();
+            return false;
+        }
+        lastLoadNanos = System.nanoTime() - t0;
+        swap(next);
+        return true;
+    }
+
+    /**
+     * Swaps in the compiled model
+     *
+     * @param next new model
+     * @return previous model (null if there was none)
+     */
+    public CompiledLIGA swap(CompiledLIGA next) {
+        long t0 = System.nanoTime();
+        CompiledLIGA previous = model.getAndSet(next);
+        lastSwapNanos = System.nanoTime() - t0;
+        lastSwapTime = System.currentTimeMillis();
+        swaps.incrementAndGet();
+        return previous;
+    }
+
+    /**
+     * Swap metrics: swaps, failures (models which could not be loaded), lastLoadMs (load and compilation time
+     * of the last swapped model), lastSwapNanos (publication time), lastSwapTime (ms since epoch)
+     */
+    public TreeMap<String, Long> getMetrics() {
+        TreeMap<String, Long> metrics = new TreeMap<>();
+        metrics.put("swaps", swaps.get());
+        metrics.put("failures", failures.get());
+        metrics.put("lastLoadMs", lastLoadNanos / 1000000);
+        metrics.put("lastSwapNanos", lastSwapNanos);
+        metrics.put("lastSwapTime", lastSwapTime);
+        return metrics;
+    }
+
+    /**
+     * stops the loader (queued reloads are finished), the current model keeps serving
+     */
+    public void close() {
+        loader.shutdown();
+    }
+
+    public static class ModelHolderBuilder {
+
+        // confidence threshold (if lower - language is still UNKNOWN)
+        private double threshold;
+        // max recursive search depth
+        private int maxSearchDepth = 1000;
+        // flag of model, if true - logLIGA, false - LIGA (applies to JSON and binary models alike)
+        private boolean logLIGA = true;
+        // code length of quantized counts (0 - not quantized), see LIGA.compile(int)
+        private int codeBits = 0;
+        // cache of classification results (null - no cache)
+        private ClassificationCache cache = null;
+
+        public ModelHolderBuilder setMaxSearchDepth(int maxSearchDepth) {
+            this.maxSearchDepth = maxSearchDepth;
+            return this;
+        }
+
+        public ModelHolderBuilder setLogLIGA(boolean logLIGA) {
+            this.logLIGA = logLIGA;
+            return this;
+        }
+
+        public ModelHolderBuilder setCodeBits(int codeBits) {
+            this.codeBits = codeBits;
+            return this;
+        }
+
+        public ModelHolderBuilder setClassificationCache(ClassificationCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * builder
+         */
+        public ModelHolderBuilder(double threshold) {
+            this.threshold = threshold;
+        }
+
+        public ModelHolder build() {
+            return new ModelHolder(this);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Title: ModelMerger.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.liga.util.ModelFiles;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Merges JSON models (.liga files, e.g. trained on separate shards of a corpus) into one model:
+ * node counts, edge counts and totals of every language are summed.
+ *
+ * Files are merged as streams: saveModel writes ngrams in sorted order, so the files are read in parallel
+ * like sorted runs, only the current ngram of every file is kept in memory (k-way merge).
+ * The result is the same as loading all the models, merging them with {@link LIGA#merge} and saving
+ */
+public class ModelMerger {
+
+    /**
+     * Merges the models
+     *
+     * @param inputs     paths of the models (plain or compressed)
+     * @param output     path of the merged model
+     * @param compressed if true - the merged model is compressed with GZIP
+     */
+    public static void merge(List<String> inputs, String output, boolean compressed) {
+        List<ModelReader> readers = new ArrayList<>();
+        try {
+            JsonFactory jFactory = new JsonFactory();
+            TreeMap<String, MutablePair<Integer, Integer>> counter = new TreeMap<>();
+            PriorityQueue<ModelReader> queue = new PriorityQueue<>();
+            String tokenizer = null;
+            for (String input : inputs) {
+                ModelReader reader = new ModelReader(jFactory.createParser(ModelFiles.open(input)), input, counter);
+                readers.add(reader);
+                // models of different preprocessing can not be summed
+                if (tokenizer != null && !tokenizer.equals(reader.tokenizer))
+                    throw new IOException("Models with different tokenizers can not be merged: " + input);
+                tokenizer = reader.tokenizer;
+                if (reader.next())
+                    queue.add(reader);
+            }
+
+            JsonGenerator jGenerator = jFactory.createGenerator(ModelFiles.create(output, compressed), JsonEncoding.UTF8);
+            jGenerator.writeStartObject();
+            if (tokenizer != null && !tokenizer.equals(Tokenizer.FULL))
+                jGenerator.writeStringField("tokenizer", tokenizer);
+            jGenerator.writeFieldName("graph");
+            jGenerator.writeStartObject();
+            TreeMap<String, Integer> nodes = new TreeMap<>();
+            TreeMap<String, TreeMap<String, Integer>> edges = new TreeMap<>();
+            while (!queue.isEmpty()) {
+                // all the files with the smallest ngram
+                String ngram = queue.peek().ngram;
+                nodes.clear();
+                edges.clear();
+                while (!queue.isEmpty() && queue.peek().ngram.equals(ngram)) {
+                    ModelReader reader = queue.poll();
+                    addCounts(nodes, reader.nodes);
+                    for (Map.Entry<String, TreeMap<String, Integer>> edge : reader.edges.entrySet()) {
+                        if (!edges.containsKey(edge.getKey()))
+                            edges.put(edge.getKey(), new TreeMap<String, Integer>());
+                        addCounts(edges.get(edge.getKey()), edge.getValue());
+                    }
+                    if (reader.next())
+                        queue.add(reader);
+                }
+                writeNgram(jGenerator, ngram, nodes, edges);
+            }
+            jGenerator.writeEndObject();
+
+            // totals are read when the graph of every file is read
+            jGenerator.writeFieldName("counter");
+            jGenerator.writeStartObject();
+            for (Map.Entry<String, MutablePair<Integer, Integer>> lang : counter.entrySet()) {
+                jGenerator.writeFieldName(lang.getKey());
+                jGenerator.writeStartObject();
+                jGenerator.writeNumberField("nodes", lang.getValue().getLeft());
+                jGenerator.writeNumberField("edges", lang.getValue().getRight());
+                jGenerator.writeEndObject();
+            }
+            jGenerator.writeEndObject();
+
+            jGenerator.writeEndObject();
+            jGenerator.close();
+        } catch (IOException e) {
+            System.out.println("Unable to merge models");
+            e.printStackTrace();
+        } finally {
+            for (ModelReader reader : readers)
+                reader.close();
+        }
+    }
+
+    /**
+     * Usage: ModelMerger output input1 input2 ...
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: ModelMerger output input1 input2 ...");
+            return;
+        }
+        merge(Arrays.asList(args).subList(1, args.length), args[0], false);
+    }
+
+    /**
+     * adds counts (language -> count)
+     */
+    private static void addCounts(TreeMap<String, Integer> counts, TreeMap<String, Integer> other) {
+        for (Map.Entry<String, Integer> count : other.entrySet()) {
+            Integer current = counts.get(count.getKey());
+            counts.put(count.getKey(), current == null ? count.getValue() : current + count.getValue());
+        }
+    }
+
+    /**
+     * writes ngram info (node and adjacent edges), same layout as LIGA.saveModel
+     */
+    private static void writeNgram(JsonGenerator jGenerator, String ngram, TreeMap<String, Integer> nodes,
+                                   TreeMap<String, TreeMap<String, Integer>> edges) throws IOException {
+        jGenerator.writeFieldName(ngram);
+        jGenerator.writeStartObject();
+        jGenerator.writeFieldName("nodes");
+        jGenerator.writeStartObject();
+        for (Map.Entry<String, Integer> count : nodes.entrySet())
+            jGenerator.writeNumberField(count.getKey(), count.getValue());
+        jGenerator.writeEndObject();
+        jGenerator.writeFieldName("edges");
+        jGenerator.writeStartObject();
+        for (Map.Entry<String, TreeMap<String, Integer>> edge : edges.entrySet()) {
+            jGenerator.writeFieldName(edge.getKey());
+            jGenerator.writeStartObject();
+            for (Map.Entry<String, Integer> count : edge.getValue().entrySet())
+                jGenerator.writeNumberField(count.getKey(), count.getValue());
+            jGenerator.writeEndObject();
+        }
+        jGenerator.writeEndObject();
+        jGenerator.writeEndObject();
+    }
+
+    /**
+     * Reads the graph of one model ngram by ngram, adds totals of the model to the counter
+     */
+    private static class ModelReader implements Comparable<ModelReader> {
+
+        private final JsonParser jParser;
+        private final String path;
+        private final TreeMap<String, MutablePair<Integer, Integer>> counter;
+        private boolean inGraph = false;
+        // name of the tokenizer of the model (see Tokenizer.getName)
+        private String tokenizer = Tokenizer.FULL;
+
+        // current ngram, its node counts (language -> count) and edges (target -> language -> count)
+        private String ngram = null;
+        private final TreeMap<String, Integer> nodes = new TreeMap<>();
+        private final TreeMap<String, TreeMap<String, Integer>> edges = new TreeMap<>();
+
+        ModelReader(JsonParser jParser, String path, TreeMap<String, MutablePair<Integer, Integer>> counter)
+                throws IOException {
+            this.jParser = jParser;
+            this.path = path;
+            this.counter = counter;
+            if (jParser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Not a LIGA model: " + path);
+            readFields();
+        }
+
+        /**
+         * moves to the next ngram
+         *
+         * @return false if there are no more ngrams
+         */
+        boolean next() throws IOException {
+            if (!inGraph)
+                return false;
+            if (jParser.nextToken() == JsonToken.END_OBJECT) {
+                inGraph = false;
+                // the rest of the model (counter)
+                readFields();
+                return false;
+            }
+            String previous = ngram;
+            ngram = jParser.getCurrentName();
+            if (previous != null && previous.compareTo(ngram) >= 0)
+                throw new IOException("Ngrams are not sorted (load and save the model to sort them): " + path);
+            nodes.clear();
+            edges.clear();
+            jParser.nextToken();
+            while (jParser.nextToken() != JsonToken.END_OBJECT) {
+                String nodeOrEdge = jParser.getCurrentName();
+                jParser.nextToken();
+                if (nodeOrEdge.equals("nodes")) {
+                    readCounts(nodes);
+                } else if (nodeOrEdge.equals("edges")) {
+                    while (jParser.nextToken() != JsonToken.END_OBJECT) {
+                        TreeMap<String, Integer> counts = new TreeMap<>();
+                        String target = jParser.getCurrentName();
+                        jParser.nextToken();
+                        readCounts(counts);
+                        edges.put(target, counts);
+                    }
+                } else {
+                    jParser.skipChildren();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * reads top level fields up to the graph (or up to the end of the model)
+         */
+        private void readFields() throws IOException {
+            while (jParser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldname = jParser.getCurrentName();
+                jParser.nextToken();
+                if (fieldname.equals("graph")) {
+                    inGraph = true;
+                    return;
+                } else if (fieldname.equals("counter")) {
+                    readCounter();
+                } else if (fieldname.equals("tokenizer")) {
+                    tokenizer = jParser.getText();
+                } else {
+                    jParser.skipChildren();
+                }
+            }
+        }
+
+        /**
+         * reads language: count fields of the current object
+         */
+        private void readCounts(TreeMap<String, Integer> counts) throws IOException {
+            while (jParser.nextToken() != JsonToken.END_OBJECT) {
+                String language = jParser.getCurrentName();
+                jParser.nextToken();
+                counts.put(language, jParser.getIntValue());
+            }
+        }
+
+        /**
+         * reads totals and adds them to the counter
+         */
+        private void readCounter() throws IOException {
+            while (jParser.nextToken() != JsonToken.END_OBJECT) {
+                String language = jParser.getCurrentName();
+                jParser.nextToken();
+                if (!counter.containsKey(language))
+                    counter.put(language, new MutablePair<>(0, 0));
+                MutablePair<Integer, Integer> totals = counter.get(language);
+                while (jParser.nextToken() != JsonToken.END_OBJECT) {
+                    String nodeEdge = jParser.getCurrentName();
+                    jParser.nextToken();
+                    if (nodeEdge.equals("nodes"))
+                        totals.setLeft(totals.getLeft() + jParser.getIntValue());
+                    else if (nodeEdge.equals("edges"))
+                        totals.setRight(totals.getRight() + jParser.getIntValue());
+                    else
+                        jParser.skipChildren();
+                }
+            }
+        }
+
+        void close() {
+            try {
+                jParser.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public int compareTo(ModelReader other) {
+            return ngram.compareTo(other.ngram);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Title: NgramCursor.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+/**
+ * Rolling window over the characters of a document, yields ngrams without creating a string for each of them.
+ * For short ngrams (n up to 4) the window keeps the chars of the current ngram packed into a long,
+ * for longer ones - the hash of the current ngram (same as String.hashCode() of the ngram).
+ * Both are updated in O(1) per step, vocabulary looks the ngram up by the packed key or by the hash
+ * (and compares the characters in place).
+ * Documents shorter than n (but not empty) produce one ngram padded with spaces, as before
+ */
+final class NgramCursor {
+
+    private char[] chars; // document characters
+    private int n; // ngram length
+    private int count; // number of ngrams
+    private int position = -1; // start of the current ngram
+    private boolean packing; // true - packed key is rolled, false - hash
+    private long packed; // chars of the current ngram, 16 bits per char
+    private long packedMask; // bits of n chars
+    private int hash; // hash of the current ngram
+    private int power; // 31^(n-1), weight of the leaving character
+
+    /**
+     * @param doc         document
+     * @param ngramLength ngram length
+     */
+    NgramCursor(String doc, int ngramLength) {
+        this(doc.toCharArray(), doc.length(), ngramLength);
+    }
+
+    /**
+     * Cursor over the preprocessed text (see Tokenizer.clean), the text is written into the buffer
+     * of the calling thread and is not copied, so the cursor must be used before the next preprocessing in this thread
+     *
+     * @param tokenizer   tokenizer
+     * @param text        raw text
+     * @param ngramLength ngram length
+     */
+    static NgramCursor preprocessed(Tokenizer tokenizer, String text, int ngramLength) {
+        Tokenizer.Buffer doc = tokenizer.cleanToBuffer(text);
+        return new NgramCursor(doc.chars, doc.length, ngramLength);
+    }
+
+    /**
+     * @param chars       document characters (not copied, must not be changed while the cursor is used)
+     * @param length      document length
+     * @param ngramLength ngram length
+     */
+    NgramCursor(char[] chars, int length, int ngramLength) {
+        this.n = ngramLength;
+        if (length - (ngramLength - 1) > 0) {
+            // number of ngrams
+            this.chars = chars;
+            this.count = length - (ngramLength - 1);
+        } else if (length > 0) {
+            // ngrams unavailable, but document is not empty - one padded ngram
+            this.chars = new char[ngramLength];
+            System.arraycopy(chars, 0, this.chars, 0, length);
+            for (int i = length; i < ngramLength; i++)
+                this.chars[i] = ' ';
+            this.count = 1;
+        } else {
+            this.chars = chars;
+            this.count = 0;
+        }
+        this.packing = ngramLength <= NgramVocabulary.MAX_PACKED_LENGTH;
+        this.packedMask = ngramLength >= NgramVocabulary.MAX_PACKED_LENGTH ? -1L : (1L << (16 * ngramLength)) - 1;
+        this.power = 1;
+        for (int i = 1; i < ngramLength; i++)
+            this.power *= 31;
+    }
+
+    /**
+     * number of ngrams in document
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * moves to the next ngram
+     *
+     * @return false if there are no more ngrams
+     */
+    boolean next() {
+        if (position + 1 >= count)
+            return false;
+        position++;
+        if (packing) {
+            if (position == 0) {
+                long key = 0;
+                for (int i = 0; i < n; i++)
+                    key = (key << 16) | chars[i];
+                packed = key;
+            } else {
+                packed = ((packed << 16) | chars[position + n - 1]) & packedMask;
+            }
+        } else {
+            if (position == 0) {
+                hash = hashOf(chars, 0, n);
+            } else {
+                hash = 31 * (hash - power * chars[position - 1]) + chars[position + n - 1];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * characters of the document, current ngram is chars()[offset() .. offset() + length())
+     */
+    char[] chars() {
+        return chars;
+    }
+
+    /**
+     * start of the current ngram
+     */
+    int offset() {
+        return position;
+    }
+
+    /**
+     * ngram length
+     */
+    int length() {
+        return n;
+    }
+
+    /**
+     * hash of the current ngram, equals to String.hashCode() of it
+     */
+    int hash() {
+        // short ngrams are usually looked up by packed key, hash is computed only if needed
+        return packing ? hashOf(chars, position, n) : hash;
+    }
+
+    /**
+     * chars of the current ngram packed into long, 16 bits per char (only for n up to 4)
+     */
+    long packed() {
+        return packed;
+    }
+
+    private static int hashOf(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++)
+            h = 31 * h + chars[offset + i];
+        return h;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Title: NgramIndex.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+/**
+ * Ngram -> id lookup of a model. Ids of the prepared texts are kept per index (see PreparedText),
+ * while the stamp is the same the known ngrams keep their ids and new ngrams only get the next ids
+ */
+interface NgramIndex {
+
+    /**
+     * unique stamp of the ids, changes when the ids of the known ngrams may change
+     */
+    long stamp();
+
+    /**
+     * number of ngrams (ids are 0 .. size - 1)
+     */
+    int size();
+
+    /**
+     * returns id of the current ngram of the cursor or -1 if ngram is unknown
+     *
+     * @param ngram cursor
+     */
+    int idOf(NgramCursor ngram);
+}
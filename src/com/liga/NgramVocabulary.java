@@ -0,0 +1,302 @@
+/*
+ * Title: NgramVocabulary.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import com.liga.util.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * N-gram dictionary. Assigns every distinct ngram a dense int id (0, 1, 2, ... in order of appearance),
+ * so the graph can keep its statistics in arrays and primitive maps instead of string keyed trees.
+ *
+ * Short ngrams (n up to 4, LIGA is almost always used with n = 3) are looked up by their UTF-16 chars
+ * packed into a long, without string hashing and comparison. The packed length is the length of the first ngram,
+ * ngrams of other lengths (and all the ngrams if n > 4) are kept in the generic string hash table.
+ *
+ * Ngrams are only appended and hash table slots are only filled, so a view of the vocabulary ({@link #share})
+ * can share the arrays and skip the ngrams added later
+ */
+final class NgramVocabulary implements NgramIndex {
+
+    static final int MAX_PACKED_LENGTH = 4; // 4 chars * 16 bits = 64 bits
+
+    private static final int EMPTY = -1; // marks free slots in hash table
+
+    private String[] ngrams = new String[64]; // id -> ngram
+    private int size = 0;
+    // length of ngrams in packed table, -1 - not known yet, 0 - no packing
+    private int packedLength = -1;
+    // packed ngram -> id
+    private LongIntHashMap packed = new LongIntHashMap();
+    // open addressing hash table for not packed ngrams, contains ids (ngram -> id)
+    private int[] table = newTable(128);
+    private int mask = 127;
+    private int tableSize = 0;
+    // ngrams with ids from the limit on are hidden (views, see share)
+    private int limit = Integer.MAX_VALUE;
+    // stamp of the ids (see NgramIndex), shared by the views, changed when the ids are dropped
+    private long stamp = ClassificationCache.nextVersion();
+
+    /**
+     * number of ngrams in vocabulary
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long stamp() {
+        return stamp;
+    }
+
+    /**
+     * returns ngram by its id
+     *
+     * @param id ngram id
+     */
+    String get(int id) {
+        return ngrams[id];
+    }
+
+    /**
+     * returns id of the ngram or -1 if ngram is unknown
+     *
+     * @param ngram ngram
+     */
+    int idOf(String ngram) {
+        if (ngram.length() == packedLength)
+            return packed.get(pack(ngram));
+        int slot = slot(ngram.hashCode());
+        int id;
+        while ((id = table[slot]) != EMPTY) {
+            if (id < limit && ngrams[id].equals(ngram))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * returns id of the ngram, adds ngram to vocabulary if it is unknown
+     *
+     * @param ngram ngram
+     */
+    int add(String ngram) {
+        if (limit != Integer.MAX_VALUE)
+            unshare();
+        if (packedLength == -1)
+            packedLength = ngram.length() <= MAX_PACKED_LENGTH ? ngram.length() : 0;
+        if (ngram.length() == packedLength) {
+            long key = pack(ngram);
+            int id = packed.get(key);
+            if (id == EMPTY) {
+                id = append(ngram);
+                packed.put(key, id);
+            }
+            return id;
+        }
+        int slot = slot(ngram.hashCode());
+        int id;
+        while ((id = table[slot]) != EMPTY) {
+            if (ngrams[id].equals(ngram))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        id = append(ngram);
+        table[slot] = id;
+        // keep load factor under 0.5
+        if (++tableSize << 1 > table.length)
+            rehash(table.length << 1);
+        return id;
+    }
+
+    /**
+     * returns id of the current ngram of the cursor or -1 if ngram is unknown
+     *
+     * @param ngram cursor
+     */
+    @Override
+    public int idOf(NgramCursor ngram) {
+        if (ngram.length() == packedLength)
+            return packed.get(ngram.packed());
+        int slot = slot(ngram.hash());
+        int id;
+        while ((id = table[slot]) != EMPTY) {
+            if (id < limit && matches(ngrams[id], ngram))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * returns id of the current ngram of the cursor, adds ngram to vocabulary if it is unknown
+     * (string of the ngram is created only in this case)
+     *
+     * @param ngram cursor
+     */
+    int add(NgramCursor ngram) {
+        int id = idOf(ngram);
+        if (id != EMPTY)
+            return id;
+        return add(new String(ngram.chars(), ngram.offset(), ngram.length()));
+    }
+
+    /**
+     * compares ngram with the current ngram of the cursor
+     *
+     * @param ngram  ngram
+     * @param cursor cursor
+     */
+    private static boolean matches(String ngram, NgramCursor cursor) {
+        int length = cursor.length();
+        if (ngram.length() != length)
+            return false;
+        char[] chars = cursor.chars();
+        int offset = cursor.offset();
+        for (int i = 0; i < length; i++)
+            if (ngram.charAt(i) != chars[offset + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * packs chars of short ngram into long (16 bits per char), same as NgramCursor.packed()
+     *
+     * @param ngram ngram, not longer than MAX_PACKED_LENGTH
+     */
+    private static long pack(String ngram) {
+        long key = 0;
+        for (int i = 0; i < ngram.length(); i++)
+            key = (key << 16) | ngram.charAt(i);
+        return key;
+    }
+
+    /**
+     * ids sorted by the natural order of ngrams (the order of the saved model)
+     */
+    int[] sortedIds() {
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++)
+            boxed[i] = i;
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return ngrams[a].compareTo(ngrams[b]);
+            }
+        });
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++)
+            ids[i] = boxed[i];
+        return ids;
+    }
+
+    /**
+     * returns an independent copy of vocabulary
+     */
+    NgramVocabulary copy() {
+        NgramVocabulary out = new NgramVocabulary();
+        out.ngrams = Arrays.copyOf(ngrams, ngrams.length);
+        out.size = size;
+        out.packedLength = packedLength;
+        out.packed = packed.copy();
+        out.table = Arrays.copyOf(table, table.length);
+        out.mask = mask;
+        out.tableSize = tableSize;
+        out.limit = limit;
+        return out;
+    }
+
+    /**
+     * Returns a view of the current ngrams which shares the arrays with this vocabulary (O(1)).
+     * The view can be read while ngrams are added to this vocabulary in another thread, it does not see them
+     * and copies the arrays before its own changes
+     */
+    NgramVocabulary share() {
+        NgramVocabulary out = new NgramVocabulary();
+        out.ngrams = ngrams;
+        out.size = size;
+        out.packedLength = packedLength;
+        out.packed = packed.share(size);
+        out.table = table;
+        out.mask = mask;
+        out.tableSize = tableSize;
+        out.limit = size;
+        out.stamp = stamp;
+        return out;
+    }
+
+    /**
+     * private arrays of a view, ngrams added to the shared arrays by others are dropped
+     */
+    private void unshare() {
+        String[] own = new String[ngrams.length];
+        System.arraycopy(ngrams, 0, own, 0, size);
+        ngrams = own;
+        limit = Integer.MAX_VALUE;
+        stamp = ClassificationCache.nextVersion();
+        rehash(table.length);
+    }
+
+    /**
+     * removes all the ngrams
+     */
+    void clear() {
+        ngrams = new String[64];
+        size = 0;
+        packedLength = -1;
+        packed = new LongIntHashMap();
+        table = newTable(128);
+        mask = 127;
+        tableSize = 0;
+        limit = Integer.MAX_VALUE;
+        stamp = ClassificationCache.nextVersion();
+    }
+
+    /**
+     * adds ngram to id -> ngram array
+     *
+     * @param ngram ngram
+     * @return id of the ngram
+     */
+    private int append(String ngram) {
+        int id = size++;
+        if (id == ngrams.length)
+            ngrams = Arrays.copyOf(ngrams, id << 1);
+        ngrams[id] = ngram;
+        return id;
+    }
+
+    private int slot(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        table = newTable(capacity);
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            // packed ngrams are not in this table
+            if (ngrams[id].length() == packedLength)
+                continue;
+            int slot = slot(ngrams[id].hashCode());
+            while (table[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            table[slot] = id;
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int[] t = new int[capacity];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+}
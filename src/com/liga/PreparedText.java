@@ -0,0 +1,164 @@
+/*
+ * Title: PreparedText.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.util.Arrays;
+
+/**
+ * Message which is preprocessed once and can then be classified and added to the models any number of times
+ * (scored, added and scored again, as in active learning) without tokenizing it again.
+ * Ngrams are read from the kept characters directly, no ngram strings are created, and their ids are looked up
+ * in the model once: the ids are kept until the text is used with another model, when the model only got
+ * new ngrams since, only the ngrams which were unknown are looked up again.
+ *
+ * Texts prepared by a tokenizer are accepted only by the models with the same tokenizer,
+ * texts of already normalized pipelines (ofPreprocessed) are accepted by every model as they are
+ */
+public final class PreparedText {
+
+    private final char[] chars; // preprocessed characters
+    private final int ngramLength;
+    private final Tokenizer tokenizer; // null if the text was preprocessed by the caller
+    private String doc; // preprocessed document, created when needed
+    private volatile NgramIds ids; // ngram ids of the last model the text was used with
+
+    private PreparedText(char[] chars, int ngramLength, Tokenizer tokenizer) {
+        this.chars = chars;
+        this.ngramLength = ngramLength;
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Preprocesses a raw message, the same as tokenizer.clean(text)
+     *
+     * @param tokenizer   tokenizer of the models the text will be used with
+     * @param text        raw message
+     * @param ngramLength n
+     */
+    public static PreparedText of(Tokenizer tokenizer, String text, int ngramLength) {
+        Tokenizer.Buffer buffer = tokenizer.cleanToBuffer(text);
+        return new PreparedText(Arrays.copyOf(buffer.chars, buffer.length), ngramLength, tokenizer);
+    }
+
+    /**
+     * Message which is already preprocessed by the caller, it is used as it is
+     *
+     * @param doc         preprocessed document
+     * @param ngramLength n
+     */
+    public static PreparedText ofPreprocessed(String doc, int ngramLength) {
+        PreparedText prepared = new PreparedText(doc.toCharArray(), ngramLength, null);
+        prepared.doc = doc;
+        return prepared;
+    }
+
+    /**
+     * preprocessed document
+     */
+    public String getDoc() {
+        String result = doc;
+        if (result == null) {
+            result = new String(chars);
+            doc = result;
+        }
+        return result;
+    }
+
+    public int getNgramLength() {
+        return ngramLength;
+    }
+
+    /**
+     * tokenizer the text was preprocessed with (null if it was preprocessed by the caller)
+     */
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * number of ngrams (a non-empty document shorter than n has one padded ngram)
+     */
+    public int getNgramCount() {
+        return cursor().count();
+    }
+
+    /**
+     * true if nothing is left after preprocessing
+     */
+    public boolean isEmpty() {
+        return chars.length == 0;
+    }
+
+    /**
+     * new cursor over the ngrams, cursors do not change the text and can be used by several threads
+     */
+    NgramCursor cursor() {
+        return new NgramCursor(chars, chars.length, ngramLength);
+    }
+
+    /**
+     * Ids of all the ngrams of the text in the model index (-1 for unknown ngram), looked up once per index.
+     * The returned array must not be changed, it is shared by the threads which use the text
+     *
+     * @param index ngram index of the model
+     */
+    int[] ngramIds(NgramIndex index) {
+        NgramIds cached = ids;
+        long stamp = index.stamp();
+        int size = index.size();
+        if (cached != null && cached.stamp == stamp && cached.size == size)
+            return cached.ids;
+        NgramCursor ngrams = cursor();
+        int[] out;
+        if (cached != null && cached.stamp == stamp && cached.size < size) {
+            // known ngrams keep their ids, only the unknown ones may be new
+            out = cached.ids.clone();
+            for (int i = 0; ngrams.next(); i++)
+                if (out[i] == -1)
+                    out[i] = index.idOf(ngrams);
+        } else {
+            out = new int[ngrams.count()];
+            for (int i = 0; ngrams.next(); i++)
+                out[i] = index.idOf(ngrams);
+        }
+        ids = new NgramIds(stamp, size, out);
+        return out;
+    }
+
+    /**
+     * Checks that the text was preprocessed the way the model preprocesses messages
+     *
+     * @param modelTokenizer tokenizer of the model
+     */
+    void checkTokenizer(Tokenizer modelTokenizer) {
+        if (tokenizer != null && !tokenizer.equals(modelTokenizer))
+            throw new IllegalArgumentException("Text was prepared by the tokenizer '" + tokenizer.getName()
+                    + "', the model uses '" + modelTokenizer.getName() + "'");
+    }
+
+    @Override
+    public String toString() {
+        return getDoc();
+    }
+
+    /**
+     * ngram ids of the text in the index of the stamp with the size
+     */
+    private static final class NgramIds {
+
+        private final long stamp;
+        private final int size;
+        private final int[] ids;
+
+        NgramIds(long stamp, int size, int[] ids) {
+            this.stamp = stamp;
+            this.size = size;
+            this.ids = ids;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Title: Pruning.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+/**
+ * Settings of model pruning (see {@link LIGA#prune}). Every criterion removes {language, count} entries
+ * of nodes and edges, edges without entries are removed, ngrams are removed if they have neither node entries
+ * nor edges. Zero values disable the criteria
+ */
+public class Pruning {
+
+    // node and edge entries with lower counts are removed
+    private int minNodeCount;
+    private int minEdgeCount;
+    // only the nodes and edges with top K counts are kept for every language (entries tied with K-th are kept too)
+    private int topNodes;
+    private int topEdges;
+    // estimated memory of the model, bytes (edge, then node min counts are raised until the model fits)
+    private long memoryBudget;
+    // if true - totals are recounted as sums of the remaining counts, false - totals of the trained model are kept
+    private boolean recountTotals;
+
+    public int getMinNodeCount() {
+        return minNodeCount;
+    }
+
+    public int getMinEdgeCount() {
+        return minEdgeCount;
+    }
+
+    public int getTopNodes() {
+        return topNodes;
+    }
+
+    public int getTopEdges() {
+        return topEdges;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public boolean isRecountTotals() {
+        return recountTotals;
+    }
+
+    public Pruning(PruningBuilder builder) {
+        this.minNodeCount = builder.minNodeCount;
+        this.minEdgeCount = builder.minEdgeCount;
+        this.topNodes = builder.topNodes;
+        this.topEdges = builder.topEdges;
+        this.memoryBudget = builder.memoryBudget;
+        this.recountTotals = builder.recountTotals;
+    }
+
+    public static class PruningBuilder {
+
+        private int minNodeCount = 0;
+        private int minEdgeCount = 0;
+        private int topNodes = 0;
+        private int topEdges = 0;
+        private long memoryBudget = 0;
+        private boolean recountTotals = false;
+
+        public PruningBuilder setMinNodeCount(int minNodeCount) {
+            this.minNodeCount = minNodeCount;
+            return this;
+        }
+
+        public PruningBuilder setMinEdgeCount(int minEdgeCount) {
+            this.minEdgeCount = minEdgeCount;
+            return this;
+        }
+
+        public PruningBuilder setTopNodes(int topNodes) {
+            this.topNodes = topNodes;
+            return this;
+        }
+
+        public PruningBuilder setTopEdges(int topEdges) {
+            this.topEdges = topEdges;
+            return this;
+        }
+
+        public PruningBuilder setMemoryBudget(long memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        public PruningBuilder setRecountTotals(boolean recountTotals) {
+            this.recountTotals = recountTotals;
+            return this;
+        }
+
+        /**
+         * builder
+         */
+        public PruningBuilder() {
+        }
+
+        public Pruning build() {
+            return new Pruning(this);
+        }
+    }
+}
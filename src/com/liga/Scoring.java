@@ -0,0 +1,358 @@
+/*
+ * Title: Scoring.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * LIGA and logLIGA scoring shared by the mutable model and its compiled snapshots
+ */
+final class Scoring {
+
+    // relative margin of score bounds, covers rounding errors of summation
+    private static final double BOUND_MARGIN = 1e-9;
+    // number of gain levels of the counting order of the early exit
+    private static final int ORDER_BUCKETS = 16;
+
+    private Scoring() {
+    }
+
+    /**
+     * Normalized weight of a count
+     *
+     * @param count   node or edge count for language
+     * @param total   total number of nodes or edges for language
+     * @param logLIGA if true - logLIGA (linearized frequencies), false - LIGA
+     */
+    static double weight(int count, int total, boolean logLIGA) {
+        if (logLIGA) {
+            if ((count > 0) && (total > 0))
+                return Math.log(count) / Math.log(total); // linearized ngram (transition) frequencies
+            return 0d;
+        }
+        return (double) count / (double) total;
+    }
+
+    /**
+     * Normalized weight of a count, log of the total is precomputed (logLIGA)
+     *
+     * @param count    node or edge count for language
+     * @param total    total number of nodes or edges for language
+     * @param logTotal log of the total (not used by LIGA)
+     * @param logLIGA  if true - logLIGA (linearized frequencies), false - LIGA
+     */
+    static double weight(int count, int total, double logTotal, boolean logLIGA) {
+        if (logLIGA) {
+            if ((count > 0) && (total > 0))
+                return Math.log(count) / logTotal;
+            return 0d;
+        }
+        return (double) count / (double) total;
+    }
+
+    /**
+     * Logs of the totals, indexed by language
+     *
+     * @param totals total numbers of nodes or edges, indexed by language
+     * @param size   number of languages
+     */
+    static double[] logTotals(int[] totals, int size) {
+        double[] out = new double[size];
+        for (int lang = 0; lang < size; lang++)
+            out[lang] = Math.log(totals[lang]);
+        return out;
+    }
+
+    /**
+     * Adds scores of one ngram: its node counts and counts of the edge to the next ngram.
+     * Both counts are packed {language, count} pairs sorted by language
+     *
+     * @param scores        scores, indexed by language
+     * @param scored        flags of languages which got any counts
+     * @param nodeCounts    array with node counts
+     * @param nodeFrom      first node count position (inclusive)
+     * @param nodeTo        last node count position (exclusive)
+     * @param edgeCounts    array with edge counts
+     * @param edgeFrom      first edge count position (inclusive)
+     * @param edgeTo        last edge count position (exclusive)
+     * @param nodesTotal    total number of nodes, indexed by language
+     * @param edgesTotal    total number of edges, indexed by language
+     * @param logNodesTotal logs of the total numbers of nodes, indexed by language (logLIGA only)
+     * @param logEdgesTotal logs of the total numbers of edges, indexed by language (logLIGA only)
+     * @param logLIGA       if true - logLIGA, false - LIGA
+     */
+    static void addNgram(double[] scores, boolean[] scored,
+                         int[] nodeCounts, int nodeFrom, int nodeTo,
+                         int[] edgeCounts, int edgeFrom, int edgeTo,
+                         int[] nodesTotal, int[] edgesTotal,
+                         double[] logNodesTotal, double[] logEdgesTotal, boolean logLIGA) {
+        int n = nodeFrom;
+        int e = edgeFrom;
+        while (n < nodeTo || e < edgeTo) {
+            int nodeLang = n < nodeTo ? nodeCounts[n] : Integer.MAX_VALUE;
+            int edgeLang = e < edgeTo ? edgeCounts[e] : Integer.MAX_VALUE;
+            int lang = Math.min(nodeLang, edgeLang);
+            int nodes = 0;
+            int edges = 0;
+            if (nodeLang == lang) {
+                nodes = nodeCounts[n + 1];
+                n += 2;
+            }
+            if (edgeLang == lang) {
+                edges = edgeCounts[e + 1];
+                e += 2;
+            }
+            double nodeWeight = logLIGA
+                    ? weight(nodes, nodesTotal[lang], logNodesTotal[lang], true)
+                    : weight(nodes, nodesTotal[lang], false);
+            double edgeWeight = logLIGA
+                    ? weight(edges, edgesTotal[lang], logEdgesTotal[lang], true)
+                    : weight(edges, edgesTotal[lang], false);
+            scores[lang] = scores[lang] + nodeWeight + edgeWeight;
+            scored[lang] = true;
+        }
+    }
+
+    /**
+     * Same as {@link #addNgram(double[], boolean[], int[], int, int, int[], int, int, int[], int[], double[], double[], boolean)},
+     * packed counts are read from buffers (mapped model)
+     */
+    static void addNgram(double[] scores, boolean[] scored,
+                         IntBuffer nodeCounts, int nodeFrom, int nodeTo,
+                         IntBuffer edgeCounts, int edgeFrom, int edgeTo,
+                         int[] nodesTotal, int[] edgesTotal,
+                         double[] logNodesTotal, double[] logEdgesTotal, boolean logLIGA) {
+        int n = nodeFrom;
+        int e = edgeFrom;
+        while (n < nodeTo || e < edgeTo) {
+            int nodeLang = n < nodeTo ? nodeCounts.get(n) : Integer.MAX_VALUE;
+            int edgeLang = e < edgeTo ? edgeCounts.get(e) : Integer.MAX_VALUE;
+            int lang = Math.min(nodeLang, edgeLang);
+            int nodes = 0;
+            int edges = 0;
+            if (nodeLang == lang) {
+                nodes = nodeCounts.get(n + 1);
+                n += 2;
+            }
+            if (edgeLang == lang) {
+                edges = edgeCounts.get(e + 1);
+                e += 2;
+            }
+            double nodeWeight = logLIGA
+                    ? weight(nodes, nodesTotal[lang], logNodesTotal[lang], true)
+                    : weight(nodes, nodesTotal[lang], false);
+            double edgeWeight = logLIGA
+                    ? weight(edges, edgesTotal[lang], logEdgesTotal[lang], true)
+                    : weight(edges, edgesTotal[lang], false);
+            scores[lang] = scores[lang] + nodeWeight + edgeWeight;
+            scored[lang] = true;
+        }
+    }
+
+    /**
+     * Adds scores of one ngram from precomputed weights (compiled model), no logarithms and divisions.
+     * Languages are sorted, a language absent on one side gets the weight of zero count of that side
+     *
+     * @param scores      scores, indexed by language
+     * @param scored      flags of languages which got any counts
+     * @param nodeLangs   array with node languages
+     * @param nodeWeights array with node weights (parallel to nodeLangs)
+     * @param nodeFrom    first node position (inclusive)
+     * @param nodeTo      last node position (exclusive)
+     * @param edgeLangs   array with edge languages
+     * @param edgeWeights array with edge weights (parallel to edgeLangs)
+     * @param edgeFrom    first edge position (inclusive)
+     * @param edgeTo      last edge position (exclusive)
+     * @param nodeZero    weights of zero node count, indexed by language
+     * @param edgeZero    weights of zero edge count, indexed by language
+     */
+    static void addWeights(double[] scores, boolean[] scored,
+                           int[] nodeLangs, double[] nodeWeights, int nodeFrom, int nodeTo,
+                           int[] edgeLangs, double[] edgeWeights, int edgeFrom, int edgeTo,
+                           double[] nodeZero, double[] edgeZero) {
+        int n = nodeFrom;
+        int e = edgeFrom;
+        while (n < nodeTo || e < edgeTo) {
+            int nodeLang = n < nodeTo ? nodeLangs[n] : Integer.MAX_VALUE;
+            int edgeLang = e < edgeTo ? edgeLangs[e] : Integer.MAX_VALUE;
+            int lang = Math.min(nodeLang, edgeLang);
+            double nodeWeight = nodeLang == lang ? nodeWeights[n++] : nodeZero[lang];
+            double edgeWeight = edgeLang == lang ? edgeWeights[e++] : edgeZero[lang];
+            scores[lang] = scores[lang] + nodeWeight + edgeWeight;
+            scored[lang] = true;
+        }
+    }
+
+    /**
+     * Same as {@link #addWeights}, weights are taken from the tables of the quantized model by codes.
+     * Entries are languages and codes packed into ints (language << bits | code), sorted by language
+     *
+     * @param scores    scores, indexed by language
+     * @param scored    flags of languages which got any counts
+     * @param bits      code length
+     * @param nodeCodes array with node entries
+     * @param nodeTable node weights of the codes, indexed by language and code
+     * @param nodeFrom  first node position (inclusive)
+     * @param nodeTo    last node position (exclusive)
+     * @param edgeCodes array with edge entries
+     * @param edgeTable edge weights of the codes, indexed by language and code
+     * @param edgeFrom  first edge position (inclusive)
+     * @param edgeTo    last edge position (exclusive)
+     * @param nodeZero  weights of zero node count, indexed by language
+     * @param edgeZero  weights of zero edge count, indexed by language
+     */
+    static void addCodes(double[] scores, boolean[] scored, int bits,
+                         int[] nodeCodes, double[][] nodeTable, int nodeFrom, int nodeTo,
+                         int[] edgeCodes, double[][] edgeTable, int edgeFrom, int edgeTo,
+                         double[] nodeZero, double[] edgeZero) {
+        int mask = (1 << bits) - 1;
+        int n = nodeFrom;
+        int e = edgeFrom;
+        while (n < nodeTo || e < edgeTo) {
+            int nodeLang = n < nodeTo ? nodeCodes[n] >>> bits : Integer.MAX_VALUE;
+            int edgeLang = e < edgeTo ? edgeCodes[e] >>> bits : Integer.MAX_VALUE;
+            int lang = Math.min(nodeLang, edgeLang);
+            double nodeWeight = nodeLang == lang ? nodeTable[lang][nodeCodes[n++] & mask] : nodeZero[lang];
+            double edgeWeight = edgeLang == lang ? edgeTable[lang][edgeCodes[e++] & mask] : edgeZero[lang];
+            scores[lang] = scores[lang] + nodeWeight + edgeWeight;
+            scored[lang] = true;
+        }
+    }
+
+    /**
+     * Max of the weights. Negative and NaN weights make the max NaN: scores are not monotonic then,
+     * so they can not be bounded (see {@link #isDecided})
+     *
+     * @param max    max of the previous weights
+     * @param weight node or edge weight
+     */
+    static double maxWeight(double max, double weight) {
+        return weight >= 0 ? Math.max(max, weight) : Double.NaN;
+    }
+
+    /**
+     * Order of counting for the early exit: ngrams with the biggest max gains first (roughly, by gain levels),
+     * so the bound of the gains of the ngrams which are not counted yet drops as fast as possible.
+     * Scores are sums, they do not depend on the order (up to rounding, which is covered by the margin of {@link #isDecided})
+     *
+     * @param ids       ngram ids of the document (-1 for unknown ngram, its gain is 0, it is not counted)
+     * @param count     number of ngrams
+     * @param gains     max gain of ngram (max node weight + max edge weight over all languages), indexed by ngram id
+     * @param remaining sums of the max gains of the ngrams which are not counted yet: remaining[k] - when k ngrams
+     *                  are counted (output, count + 1 elements)
+     * @return positions of the ngrams in the order of counting
+     */
+    static int[] countingOrder(int[] ids, int count, double[] gains, double[] remaining) {
+        // ngrams are put into buckets by their gains (a full sort costs more than the counting it saves)
+        double max = 0d;
+        for (int i = 0; i < count; i++)
+            if (ids[i] != -1)
+                max = Math.max(max, gains[ids[i]]);
+        double scale = (ORDER_BUCKETS - 1) / max;
+        int[] buckets = new int[count];
+        int[] starts = new int[ORDER_BUCKETS + 1];
+        for (int i = 0; i < count; i++) {
+            double gain = ids[i] == -1 ? 0d : gains[ids[i]];
+            // biggest gains in bucket 0, unknown ngrams and NaN gains in the last one
+            buckets[i] = gain > 0 ? (int) ((max - gain) * scale) : ORDER_BUCKETS - 1;
+            starts[buckets[i] + 1]++;
+        }
+        for (int bucket = 0; bucket < ORDER_BUCKETS; bucket++)
+            starts[bucket + 1] += starts[bucket];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+            order[starts[buckets[i]]++] = i;
+        remaining[count] = 0d;
+        for (int k = count - 1; k >= 0; k--)
+            remaining[k] = remaining[k + 1] + (ids[order[k]] == -1 ? 0d : gains[ids[order[k]]]);
+        return order;
+    }
+
+    /**
+     * Checks if the leading language can not be overtaken anymore.
+     * Weights are not negative, so scores only grow, and the remaining ngrams add to any language
+     * at most the sum of their max gains. The leader wins if its current score is higher than the threshold
+     * and higher than the best possible final score of any other language (with a small margin for rounding)
+     *
+     * @param scores    current scores, indexed by language
+     * @param scored    flags of languages which got any counts
+     * @param remaining sum of the max gains of the ngrams which are not counted yet (NaN - unbounded)
+     * @param threshold confidence threshold
+     */
+    static boolean isDecided(double[] scores, boolean[] scored, double remaining, double threshold) {
+        int leader = -1;
+        for (int lang = 0; lang < scores.length; lang++)
+            if (scored[lang] && (leader == -1 || scores[lang] > scores[leader]))
+                leader = lang;
+        if (leader == -1 || !(scores[leader] > threshold) || !(scores[leader] > -1.0))
+            return false;
+        // languages without counts have zero scores, they are bounded the same way
+        double second = 0d;
+        for (int lang = 0; lang < scores.length; lang++)
+            if (lang != leader)
+                second = Math.max(second, scores[lang]);
+        double bound = second + remaining;
+        return scores[leader] > bound + Math.abs(bound) * BOUND_MARGIN;
+    }
+
+    /**
+     * Scores as map (language -> score), only languages which got any counts
+     *
+     * @param scores scores, indexed by language
+     * @param scored flags of languages which got any counts
+     * @param codes  language codes, indexed by language
+     */
+    static Map<String, Double> toMap(double[] scores, boolean[] scored, String[] codes) {
+        Map<String, Double> out = new HashMap<>();
+        for (int lang = 0; lang < scores.length; lang++)
+            if (scored[lang])
+                out.put(codes[lang], scores[lang]);
+        return out;
+    }
+
+    /**
+     * Returns the language with the best score (higher than threshold) or UNKNOWN
+     *
+     * @param scores    scores, indexed by language
+     * @param scored    flags of languages which got any counts
+     * @param codes     language codes, indexed by language
+     * @param threshold confidence threshold
+     */
+    static String bestLanguage(double[] scores, boolean[] scored, String[] codes, double threshold) {
+        int best = -1;
+        boolean tie = false;
+        for (int lang = 0; lang < scores.length; lang++) {
+            if (scored[lang] && scores[lang] > -1.0 && scores[lang] > threshold) {
+                if (best == -1 || scores[lang] > scores[best]) {
+                    best = lang;
+                    tie = false;
+                } else if (scores[lang] == scores[best]) {
+                    tie = true;
+                }
+            }
+        }
+        if (best == -1)
+            return "UNKNOWN";
+        if (!tie)
+            return codes[best];
+
+        // Equal best scores are resolved in iteration order of the scores map (as it always was)
+        Double bestScore = -1.0;
+        String bestLang = "UNKNOWN";
+        for (Entry<String, Double> score : toMap(scores, scored, codes).entrySet()) {
+            if (score.getValue() > bestScore && score.getValue() > threshold) {
+                bestScore = score.getValue();
+                bestLang = score.getKey();
+            }
+        }
+        return bestLang;
+    }
+}
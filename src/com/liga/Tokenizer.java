@@ -7,52 +7,195 @@
 
 package com.liga;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
 
 /**
  * Tokenizer and message cleaner
  * Can tokenize messages or return "clear" messages (without special characters)
+ *
+ * The message is processed in one pass over its characters, without regular expressions:
+ * simple tokens (separated by whitespace) are checked (links, numbers, length), split into compounds by punctuation,
+ * every compound is lower-cased and cleaned (characters out of U+0000-U+1FFF, char repeats, numbers with units)
+ * and checked again. The rules are the same as of the former regex chain, the output is identical
+ *
+ * Every normalization stage can be switched off (see {@link Stage}). Profiles: "full" - all the stages (static methods),
+ * "fast" - lower-casing, char filter and char repeats only, for clean input. The name of the tokenizer is saved
+ * with the model, so the model is applied with the same preprocessing as it was trained with
  */
 public class Tokenizer {
 
-	final private static String PUNCT = "[\\p{Punct}–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—]"; // punctuation
-	final private static String CHAR_REPEATS_BEG = "^((.)\\2)\\2+"; // same char doesn't repeat more than once at the beginning
-	final private static String CHAR_REPEATS_MID_END = "((.)\\2)\\2+"; // same char doesn't appear more than twice at mid and end
-	final private static String DATASIZES = "^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$"; // data sizes
-	final private static String SECONDS = "^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$"; // seconds
-	final private static String HOURS = "^[0-9]+([hч])(our)?(s)?$"; // hours
-	final private static String METERS = "^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$"; // meters
-	final private static String TIME = "^[0-9]+(ap)m$"; // time
-	final private static String NUMBERS_SUP = "^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$"; // numbers
-	final private static String HEX = "^([0]+x)[0-9a-f]+$"; // hexadecimal 0xCAFE1 (doesn't match words like ABBA or CAFE)
-	final private static String CHAR_FILTER = "[^\u0000-\u1FFF]"; // filters all the characters that fall out this list
+	/**
+	 * Normalization stages
+	 */
+	public enum Stage {
+		LINKS, // web links are removed
+		NUMBERS, // tokens which can be casted into double are removed
+		LOWERCASE, // compounds are lower-cased
+		CHAR_FILTER, // characters out of U+0000-U+1FFF are removed (emoticons and so on)
+		CHAR_REPEATS, // char repeats are removed
+		UNITS // numbers with units and suffixes, hexadecimal numbers are removed (2kb, 15sec, 3rd, 0xcafe1)
+	}
+
+	// names of the profiles
+	public static final String FULL = "full";
+	public static final String FAST = "fast";
+	// name of the tokenizer without stages
+	private static final String NONE = "none";
+
+	// punctuation (POSIX \p{Punct} and typographic characters), compounds of tokens are split by it
+	final private static String PUNCT = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~–…‹›§«»¿¡≠´‘’“”⟨⟩°※©℗®℠™—";
+	final private static boolean[] IS_PUNCT = new boolean['⟩' + 1];
+	// apostrophes are removed from the tokens (don't -> dont)
+	final private static String APOSTROPHES = "'‘’";
+	// prefixes of http(s), www, ftp links
+	final private static String[] LINK_PREFIXES = {"http://", "https://", "ftp://", "file://", "mailto:", "nfs://",
+			"irc://", "ssh://", "telnet://", "www."};
+	// max length of tokens
+	final private static int MAX_LENGTH = 30;
+
+	// removed tokens: numbers with units. Every unit is a sequence of groups of alternatives,
+	// "" makes the group optional. Numbers are followed by the units up to the end of the token
+	final private static String[][] DATASIZES = {{"", "k", "m", "g", "t", "p"}, {"b", "б"},
+			{"", "it", "yte", "ит", "айт"}, {"", "s"}}; // data sizes: 2kb, 15mb
+	final private static String[][] SECONDS = {{"", "n", "m", "н", "м"}, {"s", "с"}, {"", "ec", "ек"}, {"", "ond"},
+			{"", "s"}}; // seconds: 2sec, 15s
+	final private static String[][] HOURS = {{"h", "ч"}, {"", "our"}, {"", "s"}}; // hours: 2h, 15hours
+	final private static String[][] METERS = {{"", "s", "k", "m", "c", "d", "n", "к", "м", "д", "н"}, {"m", "м"},
+			{"", "eter"}, {"", "s"}}; // meters: 2m, 15meters
+	final private static String[][] TIME = {{"apm"}}; // time
+	// suffixes of numbers (2k, 15ish, 3rd), may be followed by digits, [kmкм]+ is a suffix too
+	final private static String[] NUMBER_SUFFIXES = {"ish", "th", "nd", "st", "rd", "g", "x", "ый", "ой", "ий"};
+	final private static String NUMBER_MULTIPLIERS = "kmкм";
+
+	static {
+		for (int i = 0; i < PUNCT.length(); i++)
+			IS_PUNCT[PUNCT.charAt(i)] = true;
+	}
+
+	// preprocessed text of every thread, reused by the next call
+	final private static ThreadLocal<Buffer> BUFFERS = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer();
+		}
+	};
+
+	// profiles
+	final private static Tokenizer FULL_TOKENIZER = new Tokenizer(EnumSet.allOf(Stage.class));
+	final private static Tokenizer FAST_TOKENIZER = new Tokenizer(EnumSet.of(Stage.LOWERCASE, Stage.CHAR_FILTER,
+			Stage.CHAR_REPEATS));
+
+	// name of the profile or comma separated stages
+	private final String name;
+	private final EnumSet<Stage> stages;
+	private final boolean links;
+	private final boolean numbers;
+	private final boolean lowercase;
+	private final boolean charFilter;
+	private final boolean charRepeats;
+	private final boolean units;
+
+	private Tokenizer(EnumSet<Stage> stages) {
+		this.stages = EnumSet.copyOf(stages);
+		this.links = stages.contains(Stage.LINKS);
+		this.numbers = stages.contains(Stage.NUMBERS);
+		this.lowercase = stages.contains(Stage.LOWERCASE);
+		this.charFilter = stages.contains(Stage.CHAR_FILTER);
+		this.charRepeats = stages.contains(Stage.CHAR_REPEATS);
+		this.units = stages.contains(Stage.UNITS);
+		this.name = nameOf(stages);
+	}
 
 	/**
-	 * Tokenizes text to list of strings
+	 * Tokenizer of the profile ("full", "fast") or of the comma separated stages (e.g. "lowercase,char_repeats")
+	 * @param name name of the tokenizer, see getName()
+	 */
+	public static Tokenizer forName(String name) {
+		if (name.equals(FULL))
+			return FULL_TOKENIZER;
+		if (name.equals(FAST))
+			return FAST_TOKENIZER;
+		EnumSet<Stage> stages = EnumSet.noneOf(Stage.class);
+		if (!name.equals(NONE)) {
+			for (String stage : name.split(",")) {
+				try {
+					stages.add(Stage.valueOf(stage.trim().toUpperCase(Locale.ROOT)));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown tokenizer: " + name);
+				}
+			}
+		}
+		return new TokenizerBuilder().setStages(stages).build();
+	}
+
+	/**
+	 * name of the tokenizer: name of the profile if the stages are the same, otherwise comma separated stages
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public EnumSet<Stage> getStages() {
+		return EnumSet.copyOf(stages);
+	}
+
+	/**
+	 * true if the tokenizer is the full one (default profile)
+	 */
+	public boolean isFull() {
+		return name.equals(FULL);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Tokenizer && ((Tokenizer) other).stages.equals(stages);
+	}
+
+	@Override
+	public int hashCode() {
+		return stages.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private static String nameOf(EnumSet<Stage> stages) {
+		if (stages.size() == Stage.values().length)
+			return FULL;
+		if (stages.equals(EnumSet.of(Stage.LOWERCASE, Stage.CHAR_FILTER, Stage.CHAR_REPEATS)))
+			return FAST;
+		if (stages.isEmpty())
+			return NONE;
+		StringBuilder name = new StringBuilder();
+		for (Stage stage : stages)
+			name.append(name.length() > 0 ? "," : "").append(stage.name().toLowerCase(Locale.ROOT));
+		return name.toString();
+	}
+
+	/**
+	 * Tokenizes text to list of strings (full profile)
 	 * @param text original text
 	 */
 	public static List<String> tokenizeToList(String text){
-		List<String> tokens = getSimpleTokens(text);
-		return getTokenCompounds(tokens);
+		return FULL_TOKENIZER.tokenize(text);
 	}
 
 	/**
-	 * Preprocesses text
+	 * Preprocesses text (full profile)
 	 * @param text original text
 	 */
 	public static String preprocess(String text){
-		List<String> pureTokens = tokenizeToList(text);
-		StringBuilder output = new StringBuilder();
-		for (String token: pureTokens)
-			output.append(token).append(" ");
-		return output.toString().trim();
+		return FULL_TOKENIZER.clean(text);
 	}
 
 	/**
-	 * Tokenizes text to array of strings
+	 * Tokenizes text to array of strings (full profile)
 	 * @param text original text
 	 */
 	public static String[] tokenizeToArray(String text){
@@ -62,70 +205,167 @@ public class Tokenizer {
 	}
 
 	/**
-	 * Tokenization method for strings. Returns tokens with punctuation (except of web links and numbers).
-	 * Simple tokens can contain compounds (e.g. web-development: web, development).
-	 * @param text original message text
+	 * Tokenizes text to list of strings
+	 * @param text original text
 	 */
-	private static List<String> getSimpleTokens(String text) {
-		String[] tokensA = text.split("\\s+");
-		List<String> tokens = new LinkedList<>();
-		for (String token : tokensA) {
-			if (tokenCheck(token)) {
-				tokens.add(token.replaceAll("['‘’]", ""));
-			}
-		}
+	public List<String> tokenize(String text){
+		List<String> tokens = new ArrayList<>();
+		scan(text, tokens, BUFFERS.get());
 		return tokens;
 	}
 
 	/**
-	 * Tokenization method for strings. Returns compounds of simple tokens (e.g. web-development: web, development).
-	 * @param tokens simple tokens
+	 * Preprocesses text, tokens are separated by spaces
+	 * @param text original text
+	 */
+	public String clean(String text){
+		Buffer output = cleanToBuffer(text);
+		return new String(output.chars, 0, output.length);
+	}
+
+	/**
+	 * Preprocesses text into the buffer of the calling thread, the same as clean(text) without intermediate strings.
+	 * The buffer is reused by the next call in this thread, so it must be consumed before
+	 * @param text original text
+	 */
+	Buffer cleanToBuffer(String text){
+		Buffer output = BUFFERS.get();
+		output.clear(text.length());
+		scan(text, null, output);
+		output.trim();
+		return output;
+	}
+
+	/**
+	 * Scans the text: simple tokens (separated by whitespace) are checked and split into compounds by punctuation,
+	 * compounds are cleaned and checked again
+	 * @param text   original text
+	 * @param tokens output tokens (or null, then tokens followed by spaces are written into the buffer)
+	 * @param buffer buffer of the thread
 	 */
-	private static List<String> getTokenCompounds(List<String> tokens) {
-		List<String> tokensL = new LinkedList<>();
-		for (String token: tokens){
-			String[] tokensA = token.split(PUNCT);
-			for (String tokenA : tokensA) {
-				tokenA = compoundTokenEdit(tokenA);
-				if(tokenCheck(tokenA)){
-					tokensL.add(tokenA);
+	private void scan(String text, List<String> tokens, Buffer buffer) {
+		int length = text.length();
+		char[] chars = buffer.input(length);
+		text.getChars(0, length, chars, 0);
+		char[] compound = buffer.compound;
+		int i = 0;
+		while (i < length) {
+			while (i < length && isWhitespace(chars[i]))
+				i++;
+			int start = i;
+			while (i < length && !isWhitespace(chars[i]))
+				i++;
+			if (tokenCheck(chars, start, i)) {
+				// compounds without apostrophes, split by punctuation
+				int size = 0;
+				for (int j = start; j <= i; j++) {
+					char c = j < i ? chars[j] : ' ';
+					if (j == i || isPunct(c) && APOSTROPHES.indexOf(c) == -1) {
+						if (size > 0)
+							compoundTokenEdit(compound, size, tokens, buffer);
+						size = 0;
+					} else if (APOSTROPHES.indexOf(c) == -1) {
+						compound[size++] = c;
+					}
 				}
 			}
 		}
-		return tokensL;
+	}
+
+	/**
+	 * Cleans the compound and adds it to the output if it passes the checks
+	 * @param compound characters of the compound (changed)
+	 * @param size     length of the compound
+	 * @param tokens   output tokens (or null)
+	 * @param buffer   output text (if tokens are null)
+	 */
+	private void compoundTokenEdit(char[] compound, int size, List<String> tokens, Buffer buffer) {
+		char[] chars = compound;
+		if (lowercase && !toLowerCase(chars, size)) {
+			chars = new String(compound, 0, size).toLowerCase().toCharArray();
+			size = chars.length;
+		}
+		if (charFilter)
+			size = filterChars(chars, size); // removes redundant characters, emoticons and so on
+		if (charRepeats)
+			size = removeCharRepeats(chars, size); // removes char repeats
+		if (units)
+			size = removeNumbers(chars, size); // removes data sizes, seconds, hours, meters, numbers, time, hex numbers
+		if (tokenCheck(chars, 0, size)) {
+			if (tokens != null)
+				tokens.add(new String(chars, 0, size));
+			else
+				buffer.append(chars, size);
+		}
 	}
 
 	/**
 	 * various checks: emptiness, number check, link check, etc.
-	 * @param token original token
+	 * @param chars characters
+	 * @param from  first character of the token (inclusive)
+	 * @param to    last character of the token (exclusive)
 	 */
-	private static boolean tokenCheck(String token) {
-		return !token.isEmpty()
-				&& !tokenIsLink(token)
-				&& !tokenIsNumber(token.replaceAll(PUNCT, ""))
-				&& !tokensLengthIsNotOk(token, 1, 30);
+	private boolean tokenCheck(char[] chars, int from, int to) {
+		return to - from >= 1
+				&& to - from <= MAX_LENGTH
+				&& !(links && tokenIsLink(chars, from, to))
+				&& !(numbers && tokenIsNumber(chars, from, to));
 	}
 
 	/**
-	 * checks if token is web link
-	 * @param token original token
+	 * checks if token is web link: http(s), www, ftp links (a prefix followed by at least one character) or
+	 * short links of type youtube.com and youtube.com/watch?v=oHg5SJYRHA0 (characters '.'..'~' with a dot inside,
+	 * optionally followed by '/' and anything). Links never contain line terminators
+	 * @param chars characters
+	 * @param from  first character of the token (inclusive)
+	 * @param to    last character of the token (exclusive)
 	 */
-	private static boolean tokenIsLink(String token) {
-		// http(s), www, ftp links
-		String p1 = ".*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+";
-		// short links of type: youtube.com & youtube.com/watch?v=oHg5SJYRHA0
-		String p2 = "^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?";
-		Pattern pat = Pattern.compile("(" + p1 + ")" + "|" + "(" + p2 + ")");
-		Matcher mat = pat.matcher(token);
-		return mat.matches();
+	private static boolean tokenIsLink(char[] chars, int from, int to) {
+		for (int i = from; i < to; i++)
+			if (isLineTerminator(chars[i]))
+				return false;
+
+		for (int i = from; i < to; i++)
+			for (String prefix : LINK_PREFIXES)
+				if (i + prefix.length() < to && regionMatches(chars, i, to, prefix))
+					return true;
+
+		int end = from;
+		while (end < to && chars[end] >= '.' && chars[end] <= '~')
+			end++;
+		int dot = -1;
+		for (int i = from + 1; i < end && dot == -1; i++)
+			if (chars[i] == '.')
+				dot = i;
+		if (dot == -1)
+			return false;
+		if (end == to && dot <= to - 2)
+			return true;
+		for (int i = end - 1; i >= dot + 2; i--)
+			if (chars[i] == '/')
+				return true;
+		return false;
 	}
 
 	/**
-	 * checks if token can be casted into double
+	 * checks if token without punctuation can be casted into double
+	 * @param chars characters
+	 * @param from  first character of the token (inclusive)
+	 * @param to    last character of the token (exclusive)
 	 */
-	private static boolean tokenIsNumber(String token) {
+	private static boolean tokenIsNumber(char[] chars, int from, int to) {
+		// signs and dots are punctuation, so a number starts with a digit, NaN or Infinity (after trimmed spaces)
+		int first = from;
+		while (first < to && (isPunct(chars[first]) || chars[first] <= ' '))
+			first++;
+		if (first == to || !(isDigit(chars[first]) || chars[first] == 'N' || chars[first] == 'I'))
+			return false;
+		StringBuilder number = new StringBuilder(to - from);
+		for (int i = from; i < to; i++)
+			if (!isPunct(chars[i]))
+				number.append(chars[i]);
 		try {
-			Double.parseDouble(token);
+			Double.parseDouble(number.toString());
 			return true;
 		} catch (NumberFormatException e) {
 			return false;
@@ -133,28 +373,285 @@ public class Tokenizer {
 	}
 
 	/**
-	 * checks if token is longer than min and shorter than max
-	 * @param token original token
-	 * @param min     minimal length of token (inclusive)
-	 * @param max     maximal length of token (inclusive)
+	 * Lower-cases characters in place, the same as String.toLowerCase(), if no special casing is needed
+	 * (surrogates, final sigma, dotted I and the languages with special rules)
+	 * @param chars characters
+	 * @param size  number of characters
+	 * @return false if special casing is needed (characters are not changed)
+	 */
+	private static boolean toLowerCase(char[] chars, int size) {
+		for (int i = 0; i < size; i++) {
+			char c = chars[i];
+			if (c >= 0x80 && (Character.isSurrogate(c) || c == 'Σ' || c == 'İ'))
+				return false;
+		}
+		String language = Locale.getDefault().getLanguage();
+		if (language.equals("tr") || language.equals("az") || language.equals("lt"))
+			return false;
+		for (int i = 0; i < size; i++)
+			chars[i] = Character.toLowerCase(chars[i]);
+		return true;
+	}
+
+	/**
+	 * removes characters out of U+0000-U+1FFF (supplementary characters are removed with both surrogates)
+	 * @param chars characters
+	 * @param size  number of characters
+	 * @return new number of characters
+	 */
+	private static int filterChars(char[] chars, int size) {
+		int out = 0;
+		for (int i = 0; i < size; i++)
+			if (chars[i] <= '῿')
+				chars[out++] = chars[i];
+		return out;
+	}
+
+	/**
+	 * same char doesn't repeat more than once at the beginning and doesn't appear more than twice at mid and end
+	 * (line terminators are kept as they are)
+	 * @param chars characters
+	 * @param size  number of characters
+	 * @return new number of characters
+	 */
+	private static int removeCharRepeats(char[] chars, int size) {
+		int out = 0;
+		int i = 0;
+		while (i < size) {
+			char c = chars[i];
+			int run = 1;
+			while (i + run < size && chars[i + run] == c)
+				run++;
+			int keep = run < 3 || isLineTerminator(c) ? run : i == 0 ? 1 : 2;
+			for (int k = 0; k < keep; k++)
+				chars[out++] = c;
+			i += run;
+		}
+		return out;
+	}
+
+	/**
+	 * removes tokens such as 2kb, 15sec, 2h, 15meters, 2k, 15ish, 6apm, 0xcafe1.
+	 * As '$' of the regexes, the end of the token is also before the final line terminator (it is kept)
+	 * @param chars characters
+	 * @param size  number of characters
+	 * @return new number of characters
 	 */
-	private static boolean tokensLengthIsNotOk(String token, int min, int max) {
-		return !((token.length() <= max) && (token.length() >= min));
+	private static int removeNumbers(char[] chars, int size) {
+		int end = size > 0 && isLineTerminator(chars[size - 1]) ? size - 1 : size;
+		if (!isNumberWithUnit(chars, end))
+			return size;
+		if (end == size)
+			return 0;
+		chars[0] = chars[end];
+		return 1;
+	}
+
+	/**
+	 * checks if the characters are a number with unit or suffix, or a hexadecimal number
+	 * @param chars characters
+	 * @param size  number of characters
+	 */
+	private static boolean isNumberWithUnit(char[] chars, int size) {
+		int digits = 0;
+		while (digits < size && isDigit(chars[digits]))
+			digits++;
+		if (digits == 0)
+			return false;
+		return isHex(chars, size)
+				|| isNumberWithSuffix(chars, digits, size)
+				|| matchesUnit(DATASIZES, 0, chars, digits, size)
+				|| matchesUnit(SECONDS, 0, chars, digits, size)
+				|| matchesUnit(HOURS, 0, chars, digits, size)
+				|| matchesUnit(METERS, 0, chars, digits, size)
+				|| matchesUnit(TIME, 0, chars, digits, size);
+	}
+
+	/**
+	 * hexadecimal number 0xCAFE1 (doesn't match words like ABBA or CAFE)
+	 * @param chars characters
+	 * @param size  number of characters
+	 */
+	private static boolean isHex(char[] chars, int size) {
+		int zeros = 0;
+		while (zeros < size && chars[zeros] == '0')
+			zeros++;
+		if (zeros == 0 || zeros + 1 >= size || chars[zeros] != 'x')
+			return false;
+		for (int i = zeros + 1; i < size; i++)
+			if (!isDigit(chars[i]) && (chars[i] < 'a' || chars[i] > 'f'))
+				return false;
+		return true;
+	}
+
+	/**
+	 * number, optionally with suffix (2k, 15ish, 3rd) and digits after it
+	 * @param chars  characters
+	 * @param digits number of leading digits
+	 * @param size   number of characters
+	 */
+	private static boolean isNumberWithSuffix(char[] chars, int digits, int size) {
+		int suffixEnd = digits;
+		while (suffixEnd < size && !isDigit(chars[suffixEnd]))
+			suffixEnd++;
+		for (int i = suffixEnd; i < size; i++)
+			if (!isDigit(chars[i]))
+				return false;
+		if (suffixEnd == digits)
+			return true;
+		for (String suffix : NUMBER_SUFFIXES)
+			if (suffix.length() == suffixEnd - digits && regionMatches(chars, digits, suffixEnd, suffix))
+				return true;
+		for (int i = digits; i < suffixEnd; i++)
+			if (NUMBER_MULTIPLIERS.indexOf(chars[i]) == -1)
+				return false;
+		return true;
+	}
+
+	/**
+	 * checks if the characters from the position up to the end are the unit (groups from the given one)
+	 * @param unit     groups of alternatives
+	 * @param group    first group
+	 * @param chars    characters
+	 * @param position first character
+	 * @param size     number of characters
+	 */
+	private static boolean matchesUnit(String[][] unit, int group, char[] chars, int position, int size) {
+		if (group == unit.length)
+			return position == size;
+		for (String alternative : unit[group])
+			if (regionMatches(chars, position, size, alternative)
+					&& matchesUnit(unit, group + 1, chars, position + alternative.length(), size))
+				return true;
+		return false;
+	}
+
+	/**
+	 * checks if the characters at the position start with the string
+	 * @param chars    characters
+	 * @param position first character
+	 * @param to       last available character (exclusive)
+	 * @param s        string
+	 */
+	private static boolean regionMatches(char[] chars, int position, int to, String s) {
+		if (position + s.length() > to)
+			return false;
+		for (int i = 0; i < s.length(); i++)
+			if (chars[position + i] != s.charAt(i))
+				return false;
+		return true;
 	}
 
-	private static String compoundTokenEdit(String token){
-		String temp = token.toLowerCase();
-		temp = temp.replaceAll(CHAR_FILTER, ""); //removes redundant characters, emoticons and so on
-		temp = temp.replaceAll(CHAR_REPEATS_BEG, "$2"); // removes multiple char repeats a the beginning
-		temp = temp.replaceAll(CHAR_REPEATS_MID_END, "$2$2"); // removes char repeats (more than twice)
-		temp = temp.replaceAll(DATASIZES, ""); // removes tokens such as 2kb, 15mb etc.
-		temp = temp.replaceAll(SECONDS, ""); // removes tokens such as 2sec, 15s etc.
-		temp = temp.replaceAll(HOURS, ""); // removes tokens such as 2h, 15hours etc.
-		temp = temp.replaceAll(METERS, ""); // removes tokens such as 2m, 15meters etc.
-		temp = temp.replaceAll(NUMBERS_SUP, ""); // removes tokens such as 2k, 15ish etc.
-		temp = temp.replaceAll(TIME, ""); // removes tokens such as 2am 6pm
-		temp = temp.replaceAll(HEX, ""); // removes hexadecimal numbers
-		return temp;
+	// \s of the regexes
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	// line terminators are not matched by '.' of the regexes
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == ' ' || c == ' ';
+	}
+
+	private static boolean isPunct(char c) {
+		return c < IS_PUNCT.length && IS_PUNCT[c];
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	public static class TokenizerBuilder {
+
+		// stages of the tokenizer, all by default
+		private EnumSet<Stage> stages = EnumSet.allOf(Stage.class);
+
+		/**
+		 * stages of the profile ("full", "fast") or of the comma separated stages
+		 */
+		public TokenizerBuilder setProfile(String profile) {
+			this.stages = forName(profile).getStages();
+			return this;
+		}
+
+		public TokenizerBuilder setStages(EnumSet<Stage> stages) {
+			this.stages = EnumSet.copyOf(stages);
+			return this;
+		}
+
+		public TokenizerBuilder setStage(Stage stage, boolean enabled) {
+			if (enabled)
+				stages.add(stage);
+			else
+				stages.remove(stage);
+			return this;
+		}
+
+		/**
+		 * builder
+		 */
+		public TokenizerBuilder() {
+		}
+
+		public Tokenizer build() {
+			Tokenizer tokenizer = new Tokenizer(stages);
+			if (tokenizer.equals(FULL_TOKENIZER))
+				return FULL_TOKENIZER;
+			if (tokenizer.equals(FAST_TOKENIZER))
+				return FAST_TOKENIZER;
+			return tokenizer;
+		}
+	}
+
+	/**
+	 * Growing buffer of preprocessed text: tokens separated by spaces, chars[0 .. length)
+	 */
+	static final class Buffer {
+
+		// buffers of long texts are not kept after the next call
+		final private static int KEPT_CAPACITY = 1 << 16;
+
+		char[] chars = new char[256];
+		int length;
+		private char[] input = new char[256]; // characters of the original text
+		final private char[] compound = new char[MAX_LENGTH]; // compound being cleaned
+
+		private char[] input(int length) {
+			if (input.length < length || input.length > KEPT_CAPACITY && length <= KEPT_CAPACITY)
+				input = new char[Math.max(length, 256)];
+			return input;
+		}
+
+		private void clear(int capacity) {
+			if (chars.length > KEPT_CAPACITY && capacity <= KEPT_CAPACITY)
+				chars = new char[256];
+			length = 0;
+		}
+
+		/**
+		 * appends the token and a space
+		 */
+		private void append(char[] token, int size) {
+			if (length + size + 1 > chars.length)
+				chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + size + 1));
+			System.arraycopy(token, 0, chars, length, size);
+			length += size;
+			chars[length++] = ' ';
+		}
+
+		/**
+		 * the same as String.trim()
+		 */
+		private void trim() {
+			while (length > 0 && chars[length - 1] <= ' ')
+				length--;
+			int start = 0;
+			while (start < length && chars[start] <= ' ')
+				start++;
+			if (start > 0) {
+				System.arraycopy(chars, start, chars, 0, length - start);
+				length -= start;
+			}
+		}
 	}
 
 }
@@ -0,0 +1,289 @@
+/*
+ * Title: TrainingJournal.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga;
+
+import com.liga.util.VarIntInputStream;
+import com.liga.util.VarIntOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of model changes made after the last snapshot (binary model).
+ * File: header (magic, version, checksum of the snapshot the log belongs to) and records.
+ * Record: length, entries, CRC32 of the entries. Every record is one change of the model (document, merge, drop),
+ * a record which is not written completely (crash) is dropped on recovery.
+ *
+ * Entries refer to ngrams and languages by their ids, new ones are declared by the entries
+ * in order of appearance, so ids are the same when the log is replayed on top of the snapshot
+ */
+final class TrainingJournal {
+
+    // "LIGJ" magic and version of the layout
+    static final int MAGIC = 0x4C49474A;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+
+    // entry tags
+    static final int LANGUAGE = 1; // new language: code
+    static final int NGRAM = 2; // new ngram: string
+    static final int DOCUMENT = 3; // document: language, number of ngrams, ngram ids
+    static final int NODE = 4; // node count increment: ngram id, language, count
+    static final int EDGE = 5; // edge count increment: source id, target id, language, count
+    static final int TOTALS = 6; // totals increment: language, nodes, edges
+    static final int DROP = 7; // model is dropped
+
+    /**
+     * Handler of the records on replay
+     */
+    interface RecordHandler {
+        /**
+         * @param entries entries of one record
+         */
+        void record(VarIntInputStream entries) throws IOException;
+    }
+
+    private final FileOutputStream file;
+    private final VarIntOutputStream out;
+    // entries of the current record
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final VarIntOutputStream record = new VarIntOutputStream(recordBytes);
+    // length of the journal with the committed records, bytes
+    private long length;
+
+    private TrainingJournal(FileOutputStream file, long length) {
+        this.file = file;
+        this.out = new VarIntOutputStream(file);
+        this.length = length;
+    }
+
+    /**
+     * Creates an empty journal (replaces the existing one atomically)
+     *
+     * @param path             journal path
+     * @param snapshotChecksum checksum of the snapshot the journal belongs to
+     */
+    static TrainingJournal create(String path, int snapshotChecksum) throws IOException {
+        File tmp = new File(path + ".tmp");
+        try (VarIntOutputStream header = new VarIntOutputStream(new FileOutputStream(tmp))) {
+            header.writeFixedInt(MAGIC);
+            header.writeFixedInt(VERSION);
+            header.writeFixedInt(snapshotChecksum);
+        }
+        Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new TrainingJournal(new FileOutputStream(path, true), HEADER_SIZE);
+    }
+
+    /**
+     * Opens the journal for appending, drops the incomplete tail
+     *
+     * @param path        journal path
+     * @param validLength length of the complete records (see {@link #replay})
+     */
+    static TrainingJournal append(String path, long validLength) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+            if (raf.length() > validLength)
+                raf.setLength(validLength);
+        }
+        return new TrainingJournal(new FileOutputStream(path, true), validLength);
+    }
+
+    /**
+     * Reads the records of the journal
+     *
+     * @param path             journal path
+     * @param snapshotChecksum checksum of the loaded snapshot
+     * @param handler          handler of the records
+     * @return length of the complete records or -1 if the journal belongs to another snapshot
+     */
+    static long replay(String path, int snapshotChecksum, RecordHandler handler) throws IOException {
+        try (VarIntInputStream in = new VarIntInputStream(new FileInputStream(path))) {
+            if (in.readFixedInt() != MAGIC)
+                throw new IOException("Not a LIGA training journal");
+            int version = in.readFixedInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported journal version: " + version);
+            if (in.readFixedInt() != snapshotChecksum)
+                return -1;
+            long length = HEADER_SIZE;
+            while (true) {
+                byte[] entries;
+                try {
+                    int size = in.readVarInt();
+                    if (size < 0)
+                        break;
+                    entries = new byte[size];
+                    int read = 0;
+                    while (read < size) {
+                        int n = in.read(entries, read, size - read);
+                        if (n < 0)
+                            throw new EOFException();
+                        read += n;
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(entries, 0, size);
+                    if (in.readFixedInt() != (int) crc.getValue())
+                        break;
+                    length += varIntSize(size) + size + 4;
+                } catch (EOFException e) {
+                    // incomplete record at the end
+                    break;
+                }
+                handler.record(new VarIntInputStream(new ByteArrayInputStream(entries)));
+            }
+            return length;
+        }
+    }
+
+    /**
+     * checksum of the snapshot (CRC32 at the end of the binary model), 0 if there is no snapshot
+     *
+     * @param path snapshot path
+     */
+    static int snapshotChecksum(String path) throws IOException {
+        File snapshot = new File(path);
+        if (!snapshot.exists())
+            return 0;
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r")) {
+            if (raf.length() < 4)
+                throw new IOException("Snapshot is truncated");
+            raf.seek(raf.length() - 4);
+            return raf.readInt();
+        }
+    }
+
+    void language(String code) {
+        try {
+            record.writeVarInt(LANGUAGE);
+            record.writeString(code);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void ngram(String ngram) {
+        try {
+            record.writeVarInt(NGRAM);
+            record.writeString(ngram);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void document(int lang, int[] ids, int count) {
+        try {
+            record.writeVarInt(DOCUMENT);
+            record.writeVarInt(lang);
+            record.writeVarInt(count);
+            for (int i = 0; i < count; i++)
+                record.writeVarInt(ids[i]);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void node(int id, int lang, int count) {
+        try {
+            record.writeVarInt(NODE);
+            record.writeVarInt(id);
+            record.writeVarInt(lang);
+            record.writeVarInt(count);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void edge(int source, int target, int lang, int count) {
+        try {
+            record.writeVarInt(EDGE);
+            record.writeVarInt(source);
+            record.writeVarInt(target);
+            record.writeVarInt(lang);
+            record.writeVarInt(count);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void totals(int lang, int nodes, int edges) {
+        try {
+            record.writeVarInt(TOTALS);
+            record.writeVarInt(lang);
+            record.writeVarInt(nodes);
+            record.writeVarInt(edges);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void drop() {
+        try {
+            record.writeVarInt(DROP);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * appends the entries written since the last commit as one record (buffered, see {@link #sync})
+     */
+    void commit() throws IOException {
+        record.flush();
+        if (recordBytes.size() == 0)
+            return;
+        byte[] entries = recordBytes.toByteArray();
+        recordBytes.reset();
+        CRC32 crc = new CRC32();
+        crc.update(entries, 0, entries.length);
+        out.writeVarInt(entries.length);
+        out.write(entries, 0, entries.length);
+        out.writeFixedInt((int) crc.getValue());
+        length += varIntSize(entries.length) + entries.length + 4;
+    }
+
+    /**
+     * length of the journal with the committed records, bytes
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * writes the committed records to the disk
+     */
+    void sync() throws IOException {
+        out.flush();
+        file.getFD().sync();
+    }
+
+    void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -15,6 +15,7 @@
 package com.liga.active;
 
 import com.liga.LIGA;
+import com.liga.PreparedText;
 import org.apache.commons.lang3.tuple.MutablePair;
 
 import java.util.*;
@@ -32,7 +33,11 @@ public class ActiveLearner {
     private int ngramLength = 3;
     private double trainThreshold; // training threshold (part of init + train)
     private boolean remainingLabeling; // adds the instances from the pool via automatic labeling after training
+    private boolean preprocessing; // scores the messages preprocessed by the model tokenizer, as they are trained
     private Set<String> langsSet = new HashSet<>();
+    // messages are scored in every iteration, they are prepared once and keep their ngram ids,
+    // after a batch is added only the ngrams which were unknown to the model are looked up again
+    private Map<String, PreparedText> prepared = new HashMap<>();
 
     public int getNgramLength() {
         return ngramLength;
@@ -50,6 +55,10 @@ public class ActiveLearner {
         this.remainingLabeling = remainingLabeling;
     }
 
+    public boolean isPreprocessing() {
+        return preprocessing;
+    }
+
     public Set<String> getLangsSet() {
         return langsSet;
     }
@@ -82,6 +91,7 @@ public class ActiveLearner {
         this.sampler = builder.sampler;
         this.liga = builder.model;
         this.trainThreshold = builder.trainThreshold;
+        this.preprocessing = builder.preprocessing;
     }
 
     /**
@@ -127,7 +137,9 @@ public class ActiveLearner {
                 samples = oracle.getLabels(samples);
 
                 //add samples to model, increase count
-                liga.addDataset(samples, ngramLength);
+                addSamples(samples);
+                // persist the batch if the model is journaled (long journal is compacted into a new snapshot)
+                liga.checkpoint();
                 count += samples.size();
 
                 if (debug) System.out.println("Iteration " + iter + ", Training samples used: " + count);
@@ -148,7 +160,7 @@ public class ActiveLearner {
                 // relabel training data according to the model
                 labelRemaining(train);
                 // add the remaining relabeled samples to the model
-                liga.addDataset(train, ngramLength);
+                addSamples(train);
             }
 
             if (debug) System.out.println("Training complete");
@@ -199,11 +211,42 @@ public class ActiveLearner {
     public List<Map<String, Double>> calcScores(List<MutablePair<String, String>> train) {
         List<Map<String, Double>> scores = new ArrayList<>();
         for (MutablePair<String, String> p : train) {
-            scores.add(liga.classifyAll(p.getRight(), ngramLength));
+            scores.add(liga.classifyAll(prepare(p.getRight())));
         }
         return scores;
     }
 
+    /**
+     * Message to score, preprocessed by the tokenizer of the model or scored as it is (see preprocessing),
+     * messages are prepared once, so their ngrams are not looked up in the model again (see PreparedText)
+     *
+     * @param text message
+     */
+    private PreparedText prepare(String text) {
+        PreparedText result = prepared.get(text);
+        if (result == null || result.getNgramLength() != ngramLength
+                || (preprocessing && !liga.getTokenizer().equals(result.getTokenizer()))) {
+            result = preprocessing ? PreparedText.of(liga.getTokenizer(), text, ngramLength)
+                    : PreparedText.ofPreprocessed(text, ngramLength);
+            prepared.put(text, result);
+        }
+        return result;
+    }
+
+    /**
+     * adds labeled samples to the model, with preprocessing the prepared messages are not preprocessed again
+     *
+     * @param samples labeled samples
+     */
+    private void addSamples(List<MutablePair<String, String>> samples) {
+        if (!preprocessing) {
+            liga.addDataset(samples, ngramLength);
+            return;
+        }
+        for (MutablePair<String, String> p : samples)
+            liga.addDocument(prepare(p.getRight()), p.getLeft());
+    }
+
     /**
      * labels remaining train set according to the model, counts the number of wrong relablings (if labels were known)
      *
@@ -213,7 +256,7 @@ public class ActiveLearner {
         int count = 0;
         for (int i = 0; i < data.size(); i++) {
             MutablePair<String, String> p = data.get(i);
-            String lang = liga.classifyMostProbable(p.getRight(), ngramLength);
+            String lang = liga.classifyMostProbable(prepare(p.getRight()));
             if (!p.getLeft().equals(lang) && !p.getLeft().equals("")) {
                 count++;
             }
@@ -238,7 +281,7 @@ public class ActiveLearner {
 
         for (int i = 0; i < test.size(); i++) {
             MutablePair<String, String> p = test.get(i);
-            String lang = liga.classifyMostProbable(p.getRight(), ngramLength);
+            String lang = liga.classifyMostProbable(prepare(p.getRight()));
             if (p.getLeft().equals(lang)) {
                 count++;
             }
@@ -266,7 +309,7 @@ public class ActiveLearner {
 
         for (int i = 0; i < test.size(); i++) {
             MutablePair<String, String> p = test.get(i);
-            String langModel = liga.classifyMostProbable(p.getRight(), ngramLength);
+            String langModel = liga.classifyMostProbable(prepare(p.getRight()));
             for (String lang : langsSet) {
                 confusionMatrixUpdate(cms, lang, p.getLeft(), langModel);
             }
@@ -397,6 +440,7 @@ public class ActiveLearner {
      */
     public void resetLearner() {
         results.clear();
+        prepared.clear();
         train.clear();
         init.clear();
         test.clear();
@@ -410,6 +454,7 @@ public class ActiveLearner {
 
         private boolean remainingLabeling = false;
         private double trainThreshold = 0.25; // training threshold (part of init + train)
+        private boolean preprocessing = false;
 
         public ActiveLearnerBuilder setRemainingLabeling(boolean remainingLabeling) {
             this.remainingLabeling = remainingLabeling;
@@ -421,6 +466,15 @@ public class ActiveLearner {
             return this;
         }
 
+        /**
+         * if true - messages are scored preprocessed by the tokenizer of the model, as they are trained
+         * (false - raw messages are scored)
+         */
+        public ActiveLearnerBuilder setPreprocessing(boolean preprocessing) {
+            this.preprocessing = preprocessing;
+            return this;
+        }
+
         /**
          * builder
          */
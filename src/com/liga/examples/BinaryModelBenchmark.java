@@ -0,0 +1,58 @@
+/*
+ * Title: BinaryModelBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.LIGA;
+import com.liga.ModelConverter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Size and load time of the JSON and binary models, checks that the JSON - binary - JSON conversion
+ * gives the same model
+ */
+public class BinaryModelBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        String json = "res" + File.separator + "model_orig.liga";
+        File binary = File.createTempFile("model_orig", ".ligab");
+        File jsonCopy = File.createTempFile("model_orig", ".liga");
+        binary.deleteOnExit();
+        jsonCopy.deleteOnExit();
+
+        ModelConverter.jsonToBinary(json, binary.getPath(), true);
+        ModelConverter.binaryToJson(binary.getPath(), jsonCopy.getPath());
+        boolean same = Arrays.equals(Files.readAllBytes(Paths.get(json)), Files.readAllBytes(jsonCopy.toPath()));
+        System.out.println("JSON -> binary -> JSON is the same model: " + same);
+
+        System.out.println(String.format("Size: JSON %d bytes, binary %d bytes",
+                new File(json).length(), binary.length()));
+
+        int runs = 20;
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        for (int warmup = 0; warmup < 5; warmup++) {
+            liga.loadModel(json);
+            liga.loadModelBinary(binary.getPath());
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            liga.loadModel(json);
+        long t1 = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            liga.loadModelBinary(binary.getPath());
+        long t2 = System.nanoTime();
+        System.out.println(String.format("Load: JSON %.1f ms, binary %.1f ms",
+                (t1 - t0) / 1e6 / runs, (t2 - t1) / 1e6 / runs));
+
+        System.exit(0);
+    }
+}
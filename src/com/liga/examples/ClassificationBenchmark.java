@@ -0,0 +1,77 @@
+/*
+ * Title: ClassificationBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classification speed on long documents (emails, articles): documents of growing length are built
+ * from the original data, time per document should grow linearly with length (up to max search depth)
+ */
+public class ClassificationBenchmark {
+
+    public static void main(String[] args) {
+
+        int[] lengths = {100, 1000, 10000, 100000}; // document lengths, chars
+        int docsPerLength = 50;
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        StringBuilder all = new StringBuilder();
+        for (MutablePair<String, String> p : dl.dataset)
+            all.append(Tokenizer.preprocess(p.getRight())).append(" ");
+
+        for (boolean log : new boolean[]{true, false}) {
+            // unlimited search depth, so the whole document is scored
+            LIGA liga = new LIGA.LIGABuilder(0.0).setLogLIGA(log).setMaxSearchDepth(Integer.MAX_VALUE).build();
+            liga.loadModel("res" + File.separator + "model_orig.liga");
+            CompiledLIGA compiled = liga.compile();
+
+            System.out.println(log ? "logLIGA" : "LIGA");
+            for (int length : lengths) {
+                List<String> docs = new ArrayList<>();
+                for (int i = 0; i < docsPerLength; i++) {
+                    int from = (int) ((long) i * 7919 % (all.length() - length));
+                    docs.add(all.substring(from, from + length));
+                }
+                // warm up
+                classify(liga, compiled, docs);
+                long[] times = classify(liga, compiled, docs);
+                System.out.println(String.format("length %7d: LIGA %9.1f us/doc, compiled %9.1f us/doc",
+                        length, times[0] / 1e3 / docs.size(), times[1] / 1e3 / docs.size()));
+            }
+            System.out.println();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * classifies documents with both models
+     *
+     * @return elapsed nanoseconds of the mutable and the compiled model
+     */
+    private static long[] classify(LIGA liga, CompiledLIGA compiled, List<String> docs) {
+        long t0 = System.nanoTime();
+        for (String doc : docs)
+            liga.classifyAll(doc, 3);
+        long t1 = System.nanoTime();
+        for (String doc : docs)
+            compiled.classifyAll(doc, 3);
+        long t2 = System.nanoTime();
+        return new long[]{t1 - t0, t2 - t1};
+    }
+}
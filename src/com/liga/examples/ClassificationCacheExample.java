@@ -0,0 +1,118 @@
+/*
+ * Title: ClassificationCacheExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.ClassificationCache;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.ModelHolder;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic with many repeated messages (a few popular messages are sent again and again, as retweets and bot posts):
+ * classification with and without the cache, results must be the same. Cached results of the changed model
+ * (addDocument, loadModel, swapped model of the holder) must not be used
+ */
+public class ClassificationCacheExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        final List<String> messages = new ArrayList<>();
+        for (MutablePair<String, String> p : dl.dataset)
+            messages.add(p.getRight());
+
+        // skewed traffic: the message of rank r is sent about 1 / r times as often as the most popular one
+        Random random = new Random(42);
+        final List<String> traffic = new ArrayList<>();
+        for (int i = 0; i < 100000; i++)
+            traffic.add(messages.get((int) Math.floor(Math.pow(messages.size(), random.nextDouble())) - 1));
+
+        String path = "res" + File.separator + "model_orig.liga";
+        LIGA plain = new LIGA.LIGABuilder(0.0125).build();
+        plain.loadModel(path);
+        ClassificationCache cache = new ClassificationCache.ClassificationCacheBuilder(2000).build();
+        LIGA cached = new LIGA.LIGABuilder(0.0125).setClassificationCache(cache).build();
+        cached.loadModel(path);
+
+        for (int round = 0; round < 2; round++) {
+            long t0 = System.nanoTime();
+            for (String text : traffic)
+                plain.classifyMostProbableText(text, 3);
+            long plainTime = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            for (String text : traffic)
+                cached.classifyMostProbableText(text, 3);
+            long cachedTime = System.nanoTime() - t0;
+            System.out.println(String.format("%d messages: without cache %.1f ms, with cache %.1f ms, %s",
+                    traffic.size(), plainTime / 1e6, cachedTime / 1e6, cache.getMetrics()));
+        }
+        int same = 0;
+        for (String text : traffic.subList(0, 10000))
+            if (plain.classifyAllText(text, 3).equals(cached.classifyAllText(text, 3))
+                    && plain.classifyMostProbableText(text, 3).equals(cached.classifyMostProbableText(text, 3)))
+                same++;
+        System.out.println(String.format("same results for %d of 10000 messages", same));
+
+        // changes of the model: cached results are not used
+        String text = traffic.get(0);
+        for (int i = 0; i < 50; i++) {
+            plain.addDocument(text, "xx_XX", 3);
+            cached.addDocument(text, "xx_XX", 3);
+        }
+        System.out.println(String.format("after addDocument: %s (without cache %s), %s",
+                cached.classifyMostProbableText(text, 3), plain.classifyMostProbableText(text, 3), cache.getMetrics()));
+        cached.loadModel(path);
+        plain.loadModel(path);
+        System.out.println(String.format("after loadModel: %s (without cache %s), %s",
+                cached.classifyMostProbableText(text, 3), plain.classifyMostProbableText(text, 3), cache.getMetrics()));
+
+        // holder shared by threads, models are swapped meanwhile
+        ClassificationCache holderCache = new ClassificationCache.ClassificationCacheBuilder(2000).build();
+        final ModelHolder holder = new ModelHolder.ModelHolderBuilder(0.0125).setClassificationCache(holderCache).build();
+        holder.load(path);
+        final LIGA half = new LIGA.LIGABuilder(0.0125).build();
+        half.addDataset(dl.dataset.subList(0, dl.dataset.size() / 2), 3);
+        final AtomicLong wrong = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < traffic.size(); i += 4) {
+                        // the model is taken before and after classification, the result must be of one of them
+                        String before = holder.get().classifyMostProbableText(traffic.get(i), 3);
+                        String result = holder.classifyMostProbableText(traffic.get(i), 3);
+                        String after = holder.get().classifyMostProbableText(traffic.get(i), 3);
+                        if (!result.equals(before) && !result.equals(after))
+                            wrong.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (int i = 0; i < 4; i++) {
+            holder.swap(half.compile());
+            holder.load(path);
+        }
+        for (Thread thread : threads)
+            thread.join();
+        holder.close();
+        System.out.println(String.format("holder: %d results of swapped out models, %s", wrong.get(),
+                holderCache.getMetrics()));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Title: CompressedModelBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.LIGA;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Size and load time of the plain and compressed (GZIP) models, JSON and binary
+ */
+public class CompressedModelBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        String json = "res" + File.separator + "model_orig.liga";
+        File dir = Files.createTempDirectory("liga-compressed").toFile();
+        File jsonCompressed = new File(dir, "model_orig.liga.gz");
+        File binary = new File(dir, "model_orig.ligab");
+        File binaryCompressed = new File(dir, "model_orig.ligab.gz");
+        File check = new File(dir, "check.liga");
+
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        liga.loadModel(json);
+        liga.saveModel(jsonCompressed.getPath(), true);
+        liga.saveModelBinary(binary.getPath());
+        liga.saveModelBinary(binaryCompressed.getPath(), true);
+
+        // compressed model is loaded to the same model
+        liga.loadModel(jsonCompressed.getPath());
+        liga.saveModel(check.getPath());
+        System.out.println("Compressed JSON gives the same model: "
+                + Arrays.equals(Files.readAllBytes(new File(json).toPath()), Files.readAllBytes(check.toPath())));
+        liga.loadModelBinary(binaryCompressed.getPath());
+        liga.saveModel(check.getPath());
+        System.out.println("Compressed binary gives the same model: "
+                + Arrays.equals(Files.readAllBytes(new File(json).toPath()), Files.readAllBytes(check.toPath())));
+        System.out.println();
+
+        int runs = 20;
+        System.out.println(String.format("%-20s %10s %10s", "model", "bytes", "load, ms"));
+        System.out.println(String.format("%-20s %10d %10.1f", "JSON", new File(json).length(), loadTime(json, false, runs)));
+        System.out.println(String.format("%-20s %10d %10.1f", "JSON + GZIP", jsonCompressed.length(),
+                loadTime(jsonCompressed.getPath(), false, runs)));
+        System.out.println(String.format("%-20s %10d %10.1f", "binary", binary.length(),
+                loadTime(binary.getPath(), true, runs)));
+        System.out.println(String.format("%-20s %10d %10.1f", "binary + GZIP", binaryCompressed.length(),
+                loadTime(binaryCompressed.getPath(), true, runs)));
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+
+    /**
+     * average load time of the model, ms
+     */
+    private static double loadTime(String path, boolean binary, int runs) {
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        for (int i = 0; i < 5; i++)
+            load(liga, path, binary);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            load(liga, path, binary);
+        return (System.nanoTime() - t0) / 1e6 / runs;
+    }
+
+    private static void load(LIGA liga, String path, boolean binary) {
+        if (binary)
+            liga.loadModelBinary(path);
+        else
+            liga.loadModel(path);
+    }
+}
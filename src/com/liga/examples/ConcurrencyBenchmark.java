@@ -0,0 +1,102 @@
+/*
+ * Title: ConcurrencyBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Stress test of the shared compiled model: many threads classify against one CompiledLIGA instance.
+ * Prints throughput for 1..N threads (should scale with cores) and checks that results equal single-threaded ones
+ */
+public class ConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int rounds = 5; // passes over the data per thread
+
+        LIGA liga = new LIGA.LIGABuilder(0.0).setLogLIGA(true).setMaxSearchDepth(1000).build();
+        liga.loadModel("res" + File.separator + "model_orig.liga");
+        final CompiledLIGA model = liga.compile();
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        final List<String> docs = new ArrayList<>();
+        for (MutablePair<String, String> p : dl.dataset)
+            docs.add(Tokenizer.preprocess(p.getRight()));
+
+        // reference labels
+        final String[] expected = new String[docs.size()];
+        for (int i = 0; i < docs.size(); i++)
+            expected[i] = model.classifyMostProbable(docs.get(i), 3);
+
+        // warm up
+        run(model, docs, expected, maxThreads, 2);
+
+        // 1, 2, 4, ... threads and all the cores
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2)
+            threadCounts.add(threads);
+        threadCounts.add(maxThreads);
+
+        double single = 0;
+        for (int threads : threadCounts) {
+            double throughput = run(model, docs, expected, threads, rounds);
+            if (threads == 1) single = throughput;
+            System.out.println(String.format("threads %3d: %10.0f docs/sec, speedup %5.2f",
+                    threads, throughput, throughput / single));
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * classifies all the documents in every thread, checks the labels
+     *
+     * @return throughput, documents per second
+     */
+    private static double run(final CompiledLIGA model, final List<String> docs, final String[] expected,
+                              int threads, final int rounds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    int mismatches = 0;
+                    for (int r = 0; r < rounds; r++)
+                        for (int i = 0; i < docs.size(); i++)
+                            if (!model.classifyMostProbable(docs.get(i), 3).equals(expected[i]))
+                                mismatches++;
+                    return mismatches;
+                }
+            }));
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        int mismatches = 0;
+        for (Future<Integer> f : results)
+            mismatches += f.get();
+        long t1 = System.nanoTime();
+        pool.shutdown();
+        if (mismatches > 0)
+            System.err.println("Concurrent results differ from single-threaded ones: " + mismatches);
+        return (double) threads * rounds * docs.size() / ((t1 - t0) / 1e9);
+    }
+}
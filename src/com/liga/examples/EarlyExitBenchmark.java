@@ -0,0 +1,106 @@
+/*
+ * Title: EarlyExitBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Early-terminating classification: checks that the languages are the same as of the full scan
+ * and shows the number of counted ngrams and time per document for documents of growing length
+ */
+public class EarlyExitBenchmark {
+
+    public static void main(String[] args) {
+
+        int[] lengths = {30, 100, 1000, 10000}; // document lengths, chars
+        int docsPerLength = 200;
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        StringBuilder all = new StringBuilder();
+        for (MutablePair<String, String> p : dl.dataset)
+            all.append(Tokenizer.preprocess(p.getRight())).append(" ");
+
+        for (boolean log : new boolean[]{true, false}) {
+            LIGA liga = new LIGA.LIGABuilder(0.0).setLogLIGA(log).build();
+            liga.loadModel("res" + File.separator + "model_orig.liga");
+            CompiledLIGA compiled = liga.compile();
+
+            List<List<String>> docsOfLength = new ArrayList<>();
+            for (int length : lengths) {
+                List<String> docs = new ArrayList<>();
+                for (int i = 0; i < docsPerLength; i++) {
+                    int from = (int) ((long) i * 7919 % (all.length() - length));
+                    docs.add(all.substring(from, from + length));
+                }
+                docsOfLength.add(docs);
+            }
+            // warm up on every length
+            for (int run = 0; run < 5; run++)
+                for (List<String> docs : docsOfLength)
+                    classify(compiled, docs);
+
+            System.out.println(log ? "logLIGA" : "LIGA");
+            int mismatches = 0;
+            for (int l = 0; l < lengths.length; l++) {
+                int length = lengths[l];
+                List<String> docs = docsOfLength.get(l);
+
+                long counted = 0;
+                for (String doc : docs) {
+                    String full = liga.classifyMostProbable(doc, 3);
+                    MutablePair<String, Integer> early = liga.classifyMostProbableEarly(doc, 3);
+                    MutablePair<String, Integer> compiledEarly = compiled.classifyMostProbableEarly(doc, 3);
+                    if (!full.equals(early.getLeft()) || !full.equals(compiledEarly.getLeft())
+                            || !early.getRight().equals(compiledEarly.getRight()))
+                        mismatches++;
+                    counted += early.getRight();
+                }
+
+                // best of several runs
+                long[] times = {Long.MAX_VALUE, Long.MAX_VALUE};
+                for (int run = 0; run < 30; run++) {
+                    long[] t = classify(compiled, docs);
+                    times[0] = Math.min(times[0], t[0]);
+                    times[1] = Math.min(times[1], t[1]);
+                }
+                System.out.println(String.format("length %6d: counted ngrams %7.1f of %7.1f, full %8.1f us/doc, early %8.1f us/doc",
+                        length, (double) counted / docs.size(), (double) Math.min(length - 2, liga.getMaxSearchDepth() + 1),
+                        times[0] / 1e3 / docs.size(), times[1] / 1e3 / docs.size()));
+            }
+            System.out.println("Mismatches: " + mismatches);
+            System.out.println();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * classifies documents with the full scan and with the early exit
+     *
+     * @return elapsed nanoseconds of the full scan and of the early exit
+     */
+    private static long[] classify(CompiledLIGA compiled, List<String> docs) {
+        long t0 = System.nanoTime();
+        for (String doc : docs)
+            compiled.classifyMostProbable(doc, 3);
+        long t1 = System.nanoTime();
+        for (String doc : docs)
+            compiled.classifyMostProbableEarly(doc, 3);
+        long t2 = System.nanoTime();
+        return new long[]{t1 - t0, t2 - t1};
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Title: FusedPipelineBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classification of raw messages: Tokenizer.preprocess and classifyAll (preprocessed string is sliced into ngrams)
+ * against classifyAllText (ngrams are read from the preprocessed characters directly).
+ * Scores must be the same, prints the times of both and of training
+ */
+public class FusedPipelineBenchmark {
+
+    public static void main(String[] args) {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<String> texts = new ArrayList<>();
+        for (MutablePair<String, String> p : dl.dataset)
+            texts.add(p.getRight());
+
+        long t0 = System.nanoTime();
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        liga.addDataset(dl.dataset, 3);
+        System.out.println(String.format("training on %d messages %.1f ms", texts.size(), (System.nanoTime() - t0) / 1e6));
+        CompiledLIGA compiled = liga.compile();
+
+        int same = 0;
+        for (String text : texts)
+            if (compiled.classifyAll(Tokenizer.preprocess(text), 3).equals(compiled.classifyAllText(text, 3))
+                    && liga.classifyAll(Tokenizer.preprocess(text), 3).equals(liga.classifyAllText(text, 3)))
+                same++;
+        System.out.println(String.format("same scores for %d of %d messages", same, texts.size()));
+
+        long separate = 0;
+        long fused = 0;
+        for (int round = 0; round < 10; round++) {
+            t0 = System.nanoTime();
+            for (String text : texts)
+                compiled.classifyMostProbable(Tokenizer.preprocess(text), 3);
+            separate += round < 5 ? 0 : System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            for (String text : texts)
+                compiled.classifyMostProbableText(text, 3);
+            fused += round < 5 ? 0 : System.nanoTime() - t0;
+        }
+        System.out.println(String.format("preprocess + classify %.1f ms, fused %.1f ms per %d messages",
+                separate / 5e6, fused / 5e6, texts.size()));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Title: HotSwapExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.ModelHolder;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Model rollouts under load: reader threads classify all the time while the holder swaps JSON, binary
+ * and broken models. Readers must never get "EMPTY MODEL" or an error, broken models must not be swapped in
+ */
+public class HotSwapExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        final List<String> docs = new ArrayList<>();
+        for (MutablePair<String, String> p : dl.dataset)
+            docs.add(Tokenizer.preprocess(p.getRight()));
+
+        // models to roll out: JSON, binary (trained on half of the messages) and a broken one
+        File dir = Files.createTempDirectory("liga-hotswap").toFile();
+        String json = "res" + File.separator + "model_orig.liga";
+        File binary = new File(dir, "half.ligab");
+        LIGA half = new LIGA.LIGABuilder(0.0125).build();
+        half.addDataset(dl.dataset.subList(0, dl.dataset.size() / 2), 3);
+        half.saveModelBinary(binary.getPath());
+        File broken = new File(dir, "broken.liga");
+        byte[] truncated = Files.readAllBytes(new File(json).toPath());
+        Files.write(broken.toPath(), Arrays.copyOf(truncated, truncated.length / 2));
+
+        final ModelHolder holder = new ModelHolder.ModelHolderBuilder(0.0125).build();
+        holder.load(json);
+
+        int readers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong classified = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < readers; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = offset; running.get(); i++) {
+                        try {
+                            if (holder.classifyMostProbable(docs.get(i % docs.size()), 3).equals("EMPTY MODEL"))
+                                errors.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                        }
+                        classified.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        String[] rollouts = {binary.getPath(), json, broken.getPath(), binary.getPath(), json};
+        for (String path : rollouts) {
+            long before = classified.get();
+            boolean swapped = holder.reload(path).get();
+            System.out.println(String.format("%-40s swapped %-5s %s, %d messages classified meanwhile",
+                    new File(path).getName(), swapped, holder.getMetrics(), classified.get() - before));
+        }
+
+        running.set(false);
+        for (Thread thread : threads)
+            thread.join();
+        holder.close();
+        System.out.println(String.format("%d messages classified, %d empty answers or errors", classified.get(), errors.get()));
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Title: JournalExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Training journal: the model is trained in small batches with a checkpoint after every batch,
+ * then recovered (last snapshot + journal) and compared with the model trained without journal.
+ * With a small journal compaction size the checkpoints compact the journal, so it does not grow without limit
+ */
+public class JournalExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<MutablePair<String, String>> dataset = dl.dataset;
+        int batch = 10;
+
+        File dir = Files.createTempDirectory("liga-journal").toFile();
+        String snapshot = new File(dir, "model.ligab").getPath();
+        String journal = new File(dir, "model.journal").getPath();
+
+        // reference model
+        LIGA reference = new LIGA.LIGABuilder(0.0125).build();
+        reference.addDataset(dataset, 3);
+
+        // first half is the snapshot, second half is journaled in batches, one batch is trained in parallel
+        LIGA liga = new LIGA.LIGABuilder(0.0125).setJournalCompactionBytes(0).build();
+        liga.addDataset(dataset.subList(0, dataset.size() / 2), 3);
+        liga.openJournal(snapshot, journal);
+        long checkpoints = 0;
+        int batches = 0;
+        for (int from = dataset.size() / 2; from < dataset.size(); from += batch) {
+            List<MutablePair<String, String>> samples = dataset.subList(from, Math.min(from + batch, dataset.size()));
+            liga.setTrainingThreads(batches % 100 == 0 ? 2 : 1);
+            liga.addDataset(samples, 3);
+            long t0 = System.nanoTime();
+            liga.checkpoint();
+            checkpoints += System.nanoTime() - t0;
+            batches++;
+        }
+        long t0 = System.nanoTime();
+        liga.saveModelBinary(new File(dir, "full.ligab").getPath());
+        long fullSave = System.nanoTime() - t0;
+        System.out.println(String.format("Checkpoint %.3f ms per batch, full save %.1f ms",
+                checkpoints / 1e6 / batches, fullSave / 1e6));
+        System.out.println(String.format("Snapshot %d bytes, journal %d bytes",
+                new File(snapshot).length(), new File(journal).length()));
+
+        // "crash": the journal is not closed, the model is recovered by another instance
+        LIGA recovered = new LIGA.LIGABuilder(0.0125).build();
+        recovered.openJournal(snapshot, journal);
+        System.out.println("Recovered model is the same: " + sameModel(reference, recovered, dir));
+
+        // compaction: everything is in the snapshot, journal is empty
+        recovered.compactJournal();
+        recovered.closeJournal();
+        System.out.println(String.format("After compaction: snapshot %d bytes, journal %d bytes",
+                new File(snapshot).length(), new File(journal).length()));
+        LIGA compacted = new LIGA.LIGABuilder(0.0125).build();
+        compacted.openJournal(snapshot, journal);
+        compacted.closeJournal();
+        System.out.println("Compacted model is the same: " + sameModel(reference, compacted, dir));
+
+        // automatic compaction: checkpoints compact the journal longer than 128 KB
+        new File(snapshot).delete();
+        new File(journal).delete();
+        LIGA compacting = new LIGA.LIGABuilder(0.0125).setJournalCompactionBytes(128 << 10).build();
+        compacting.addDataset(dataset.subList(0, dataset.size() / 2), 3);
+        compacting.openJournal(snapshot, journal);
+        int compactions = 0;
+        long maxJournal = 0;
+        for (int from = dataset.size() / 2; from < dataset.size(); from += batch) {
+            compacting.addDataset(dataset.subList(from, Math.min(from + batch, dataset.size())), 3);
+            long before = new File(journal).length();
+            compacting.checkpoint();
+            long after = new File(journal).length();
+            if (after < before)
+                compactions++;
+            maxJournal = Math.max(maxJournal, after);
+        }
+        System.out.println(String.format("Automatic compaction: %d compactions, journal at most %d bytes, now %d bytes",
+                compactions, maxJournal, new File(journal).length()));
+        LIGA recoveredCompacted = new LIGA.LIGABuilder(0.0125).build();
+        recoveredCompacted.openJournal(snapshot, journal);
+        recoveredCompacted.closeJournal();
+        System.out.println("Recovered model is the same: " + sameModel(reference, recoveredCompacted, dir));
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+
+    /**
+     * compares saved models
+     */
+    private static boolean sameModel(LIGA a, LIGA b, File dir) throws Exception {
+        File fa = new File(dir, "a.liga");
+        File fb = new File(dir, "b.liga");
+        a.saveModel(fa.getPath());
+        b.saveModel(fb.getPath());
+        return Arrays.equals(Files.readAllBytes(fa.toPath()), Files.readAllBytes(fb.toPath()));
+    }
+}
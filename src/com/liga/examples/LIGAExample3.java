@@ -9,7 +9,7 @@ package com.liga.examples;
 
 import com.liga.DataLoader;
 import com.liga.LIGA;
-import com.liga.Tokenizer;
+import com.liga.PreparedText;
 import org.apache.commons.lang3.tuple.MutablePair;
 
 import java.io.File;
@@ -90,11 +90,11 @@ public class LIGAExample3 {
                 System.out.println("Iteration " + i + " out of " + list.size());
             if (p.getLeft().equals("en") || p.getLeft().equals("de") || p.getLeft().equals("es")
                     || p.getLeft().equals("it") || p.getLeft().equals("fr") || p.getLeft().equals("nl")) {
-                String prep = Tokenizer.preprocess(p.getRight());
-                if ((prep.trim() != null) && (!prep.trim().equals(""))){
+                PreparedText prep = PreparedText.of(liga.getTokenizer(), p.getRight(), 3);
+                if (!prep.isEmpty()){
                     c++;
 
-                    String res = liga.classifyMostProbable(prep, 3);
+                    String res = liga.classifyMostProbable(prep);
 
                     if (!res.equals(p.getLeft())) System.out.println(res + " " + p.getLeft() + " " + p.getRight() + " ----> " + prep);
 
@@ -0,0 +1,57 @@
+/*
+ * Title: MappedModelCheck.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.MappedLIGA;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Checks that the memory-mapped model gives the same scores as the heap model and shows the open time
+ */
+public class MappedModelCheck {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+
+        for (boolean log : new boolean[]{true, false}) {
+            LIGA liga = new LIGA.LIGABuilder(0.0125).setLogLIGA(log).build();
+            long t0 = System.nanoTime();
+            liga.loadModel("res" + File.separator + "model_orig.liga");
+            long t1 = System.nanoTime();
+
+            File mapped = File.createTempFile("model_orig", ".ligam");
+            mapped.deleteOnExit();
+            liga.saveModelMapped(mapped.getPath());
+            long t2 = System.nanoTime();
+            MappedLIGA mappedLiga = MappedLIGA.open(mapped.getPath(), liga.getThreshold(), liga.getMaxSearchDepth());
+            long t3 = System.nanoTime();
+
+            int mismatches = 0;
+            for (MutablePair<String, String> p : dl.dataset) {
+                Map<String, Double> heap = liga.classifyAll(p.getRight(), 3);
+                if (!heap.equals(mappedLiga.classifyAll(p.getRight(), 3))
+                        || !liga.classifyMostProbable(p.getRight(), 3).equals(mappedLiga.classifyMostProbable(p.getRight(), 3)))
+                    mismatches++;
+            }
+
+            System.out.println(log ? "logLIGA" : "LIGA");
+            System.out.println(String.format("Open: heap %.1f ms, mapped %.3f ms", (t1 - t0) / 1e6, (t3 - t2) / 1e6));
+            System.out.println("Documents: " + dl.dataset.size() + ", mismatches: " + mismatches);
+            System.out.println();
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Title: ParallelLoadBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.LIGA;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Load time of the model with different numbers of threads, checks that the loaded models are the same
+ */
+public class ParallelLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        String model = "res" + File.separator + "model_orig.liga";
+        int[] threads = {1, 2, 4, 8};
+        int runs = 20;
+
+        File check = File.createTempFile("check", ".liga");
+        check.deleteOnExit();
+        byte[] original = Files.readAllBytes(new File(model).toPath());
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        for (int t : threads) {
+            for (int i = 0; i < 5; i++)
+                liga.loadModelParallel(model, t);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < runs; i++)
+                liga.loadModelParallel(model, t);
+            long elapsed = System.nanoTime() - t0;
+            liga.saveModel(check.getPath());
+            boolean same = Arrays.equals(original, Files.readAllBytes(check.toPath()));
+            System.out.println(String.format("threads %d: %.1f ms, same model: %s", t, elapsed / 1e6 / runs, same));
+        }
+
+        System.exit(0);
+    }
+}
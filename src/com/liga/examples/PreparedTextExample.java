@@ -0,0 +1,127 @@
+/*
+ * Title: PreparedTextExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.ClassificationCache;
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.MappedLIGA;
+import com.liga.ModelHolder;
+import com.liga.PreparedText;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Messages prepared once: training and classification with prepared texts must give the same models and results
+ * as with raw messages. Prints the times of the score - add - score again loop (as in active learning)
+ * with raw and with prepared messages
+ */
+public class PreparedTextExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<MutablePair<String, String>> dataset = dl.dataset;
+        List<MutablePair<String, String>> train = dataset.subList(0, dataset.size() / 2);
+        List<MutablePair<String, String>> pool = dataset.subList(dataset.size() / 2, dataset.size());
+
+        Tokenizer tokenizer = Tokenizer.forName(Tokenizer.FULL);
+        List<PreparedText> prepared = new ArrayList<>();
+        for (MutablePair<String, String> p : dataset)
+            prepared.add(PreparedText.of(tokenizer, p.getRight(), 3));
+
+        // training
+        LIGA raw = new LIGA.LIGABuilder(0.0125).build();
+        raw.addDataset(train, 3);
+        LIGA fromPrepared = new LIGA.LIGABuilder(0.0125).build();
+        for (int i = 0; i < train.size(); i++)
+            fromPrepared.addDocument(prepared.get(i), train.get(i).getLeft());
+        File dir = Files.createTempDirectory("liga-prepared").toFile();
+        File rawFile = new File(dir, "raw.liga");
+        File preparedFile = new File(dir, "prepared.liga");
+        raw.saveModel(rawFile.getPath());
+        fromPrepared.saveModel(preparedFile.getPath());
+        System.out.println("same saved models: " + Arrays.equals(Files.readAllBytes(rawFile.toPath()),
+                Files.readAllBytes(preparedFile.toPath())));
+
+        // classification by every kind of model
+        CompiledLIGA compiled = raw.compile();
+        File mappedFile = new File(dir, "model.ligam");
+        raw.saveModelMapped(mappedFile.getPath());
+        MappedLIGA mapped = MappedLIGA.open(mappedFile.getPath(), 0.0125, 1000);
+        ModelHolder holder = new ModelHolder.ModelHolderBuilder(0.0125)
+                .setClassificationCache(new ClassificationCache.ClassificationCacheBuilder(1000).build()).build();
+        holder.swap(compiled);
+        int same = 0;
+        for (int i = 0; i < dataset.size(); i++) {
+            String text = dataset.get(i).getRight();
+            PreparedText p = prepared.get(i);
+            if (raw.classifyAll(p).equals(raw.classifyAllText(text, 3))
+                    && raw.classifyMostProbable(p).equals(raw.classifyMostProbableText(text, 3))
+                    && compiled.classifyAll(p).equals(compiled.classifyAllText(text, 3))
+                    && compiled.classifyMostProbable(p).equals(compiled.classifyMostProbableText(text, 3))
+                    && mapped.classifyAll(p).equals(mapped.classifyAllText(text, 3))
+                    && mapped.classifyMostProbable(p).equals(mapped.classifyMostProbableText(text, 3))
+                    && holder.classifyAll(p).equals(holder.classifyAllText(text, 3))
+                    && holder.classifyMostProbable(p).equals(holder.classifyMostProbableText(text, 3))
+                    && raw.classifyAll(PreparedText.ofPreprocessed(p.getDoc(), 3)).equals(raw.classifyAll(p.getDoc(), 3)))
+                same++;
+        }
+        System.out.println(String.format("same results for %d of %d messages", same, dataset.size()));
+        holder.close();
+
+        // texts of another tokenizer are rejected
+        LIGA fast = new LIGA.LIGABuilder(0.0125).setTokenizer(Tokenizer.forName(Tokenizer.FAST)).build();
+        try {
+            fast.addDocument(prepared.get(0), "en");
+            System.out.println("text of another tokenizer was accepted");
+        } catch (IllegalArgumentException e) {
+            System.out.println("text of another tokenizer was rejected: " + e.getMessage());
+        }
+
+        // score the pool, add a batch of it, score again
+        for (int round = 0; round < 2; round++) {
+            long t0 = System.nanoTime();
+            LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+            liga.addDataset(train, 3);
+            for (int start = 0; start < pool.size(); start += pool.size() / 5) {
+                for (MutablePair<String, String> p : pool)
+                    liga.classifyAllText(p.getRight(), 3);
+                for (MutablePair<String, String> p : pool.subList(start, Math.min(pool.size(), start + pool.size() / 5)))
+                    liga.addDocument(p.getRight(), p.getLeft(), 3);
+            }
+            long rawTime = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            liga = new LIGA.LIGABuilder(0.0125).build();
+            liga.addDataset(train, 3);
+            List<PreparedText> poolPrepared = prepared.subList(train.size(), dataset.size());
+            for (int start = 0; start < pool.size(); start += pool.size() / 5) {
+                for (PreparedText p : poolPrepared)
+                    liga.classifyAll(p);
+                for (int i = start; i < Math.min(pool.size(), start + pool.size() / 5); i++)
+                    liga.addDocument(poolPrepared.get(i), pool.get(i).getLeft());
+            }
+            long preparedTime = System.nanoTime() - t0;
+            System.out.println(String.format("score - add - score again: raw messages %.1f ms, prepared %.1f ms",
+                    rawTime / 1e6, preparedTime / 1e6));
+        }
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Title: PruningExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.Pruning;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Model size and accuracy on held-out messages after pruning with different settings
+ */
+public class PruningExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<MutablePair<String, String>> dataset = new ArrayList<>(dl.dataset);
+        Collections.shuffle(dataset, new Random(42));
+        List<MutablePair<String, String>> train = dataset.subList(0, dataset.size() * 4 / 5);
+        List<MutablePair<String, String>> test = dataset.subList(dataset.size() * 4 / 5, dataset.size());
+
+        File dir = Files.createTempDirectory("liga-pruning").toFile();
+        File original = new File(dir, "original.ligab");
+        File pruned = new File(dir, "pruned.ligab");
+
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        liga.addDataset(train, 3);
+        liga.saveModelBinary(original.getPath());
+        long budget = liga.estimateMemory() / 2;
+
+        List<MutablePair<String, Pruning>> settings = new ArrayList<>();
+        settings.add(new MutablePair<>("none", new Pruning.PruningBuilder().build()));
+        settings.add(new MutablePair<>("edges >= 2", new Pruning.PruningBuilder().setMinEdgeCount(2).build()));
+        settings.add(new MutablePair<>("nodes, edges >= 2", new Pruning.PruningBuilder()
+                .setMinNodeCount(2).setMinEdgeCount(2).build()));
+        settings.add(new MutablePair<>("edges >= 2, recount", new Pruning.PruningBuilder()
+                .setMinEdgeCount(2).setRecountTotals(true).build()));
+        settings.add(new MutablePair<>("top 2000 edges", new Pruning.PruningBuilder().setTopEdges(2000).build()));
+        settings.add(new MutablePair<>("1/2 of memory", new Pruning.PruningBuilder().setMemoryBudget(budget).build()));
+
+        System.out.println(String.format("%-22s %8s %8s %10s %10s %9s", "pruning", "ngrams", "edges",
+                "est. bytes", "file bytes", "accuracy"));
+        for (MutablePair<String, Pruning> setting : settings) {
+            liga.loadModelBinary(original.getPath());
+            TreeMap<String, Long> report = liga.prune(setting.getRight());
+            liga.saveModelBinary(pruned.getPath());
+            System.out.println(String.format("%-22s %8d %8d %10d %10d %8.2f%%", setting.getLeft(),
+                    report.get("ngramsAfter"), report.get("edgesAfter"), report.get("bytesAfter"),
+                    pruned.length(), accuracy(liga, test) * 100));
+        }
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+
+    private static double accuracy(LIGA liga, List<MutablePair<String, String>> test) {
+        int correct = 0;
+        for (MutablePair<String, String> message : test)
+            if (liga.classifyMostProbable(message.getRight(), 3).equals(message.getLeft()))
+                correct++;
+        return (double) correct / test.size();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Title: QuantizationAccuracy.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Memory, saved size, accuracy on held-out messages and agreement with the exact model
+ * of the models with counts quantized to 16 and 8 bits (LIGA and logLIGA)
+ */
+public class QuantizationAccuracy {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<MutablePair<String, String>> dataset = new ArrayList<>(dl.dataset);
+        Collections.shuffle(dataset, new Random(42));
+        List<MutablePair<String, String>> train = dataset.subList(0, dataset.size() * 4 / 5);
+        List<MutablePair<String, String>> test = dataset.subList(dataset.size() * 4 / 5, dataset.size());
+
+        File dir = Files.createTempDirectory("liga-quantized").toFile();
+        File saved = new File(dir, "model.ligab");
+
+        // held-out messages, counts of this model are few and every language fits into 8 bits without loss
+        for (boolean log : new boolean[]{true, false}) {
+            LIGA liga = new LIGA.LIGABuilder(0.0125).setLogLIGA(log).build();
+            liga.addDataset(train, 3);
+            report((log ? "logLIGA" : "LIGA") + ", 80% of messages, held-out 20%", liga, test, saved);
+        }
+
+        // model of all the messages has more distinct node counts than 8 bit codes
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        liga.loadModel("res" + File.separator + "model_orig.liga");
+        report("logLIGA, model_orig.liga, all the messages", liga, dataset, saved);
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+
+    private static void report(String name, LIGA liga, List<MutablePair<String, String>> test, File saved) {
+        CompiledLIGA exact = liga.compile();
+        System.out.println(name);
+        System.out.println(String.format("%-6s %10s %10s %9s %9s %8s %s", "bits", "bytes", "file bytes",
+                "accuracy", "agreement", "ms", "saved model gives the same"));
+        for (int bits : new int[]{0, 16, 8}) {
+            CompiledLIGA quantized = liga.compile(bits);
+            liga.saveModelBinary(saved.getPath(), false, bits);
+            LIGA loaded = new LIGA.LIGABuilder(0.0125).setLogLIGA(liga.isLogLIGA()).build();
+            loaded.loadModelBinary(saved.getPath());
+            CompiledLIGA reloaded = loaded.compile();
+
+            int correct = 0;
+            int agreed = 0;
+            int same = 0;
+            long time = 0;
+            for (MutablePair<String, String> message : test) {
+                long t0 = System.nanoTime();
+                String lang = quantized.classifyMostProbable(message.getRight(), 3);
+                time += System.nanoTime() - t0;
+                if (lang.equals(message.getLeft()))
+                    correct++;
+                if (lang.equals(exact.classifyMostProbable(message.getRight(), 3)))
+                    agreed++;
+                if (quantized.classifyAll(message.getRight(), 3).equals(reloaded.classifyAll(message.getRight(), 3)))
+                    same++;
+            }
+            System.out.println(String.format("%-6s %10d %10d %8.2f%% %8.2f%% %8.1f %s", bits == 0 ? "exact" : bits,
+                    quantized.estimateMemory(), saved.length(), 100.0 * correct / test.size(),
+                    100.0 * agreed / test.size(), time / 1e6, same == test.size()));
+        }
+        System.out.println();
+    }
+}
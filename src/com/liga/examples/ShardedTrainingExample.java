@@ -0,0 +1,73 @@
+/*
+ * Title: ShardedTrainingExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.ModelMerger;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sharded training: every shard of the dataset is trained into its own model (as in separate processes),
+ * the models are merged in memory (LIGA.merge) and as files (ModelMerger) and compared with the model
+ * trained on the whole dataset
+ */
+public class ShardedTrainingExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<MutablePair<String, String>> dataset = dl.dataset;
+        int shards = 3;
+
+        File dir = Files.createTempDirectory("liga-shards").toFile();
+
+        LIGA whole = new LIGA.LIGABuilder(0.0125).build();
+        whole.addDataset(dataset, 3);
+        File wholeFile = new File(dir, "whole.liga");
+        whole.saveModel(wholeFile.getPath());
+
+        // shards
+        List<String> shardFiles = new ArrayList<>();
+        LIGA merged = new LIGA.LIGABuilder(0.0125).build();
+        for (int shard = 0; shard < shards; shard++) {
+            LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+            liga.addDataset(dataset.subList(dataset.size() * shard / shards, dataset.size() * (shard + 1) / shards), 3);
+            File shardFile = new File(dir, "shard" + shard + ".liga");
+            liga.saveModel(shardFile.getPath(), shard == 0); // compressed and plain shards
+            shardFiles.add(shardFile.getPath());
+            merged.merge(liga);
+        }
+
+        File mergedFile = new File(dir, "merged.liga");
+        merged.saveModel(mergedFile.getPath());
+        System.out.println("LIGA.merge gives the same model: " + sameFiles(wholeFile, mergedFile));
+
+        File streamedFile = new File(dir, "streamed.liga");
+        long t0 = System.nanoTime();
+        ModelMerger.merge(shardFiles, streamedFile.getPath(), false);
+        System.out.println(String.format("ModelMerger gives the same model: %s (%.1f ms)",
+                sameFiles(wholeFile, streamedFile), (System.nanoTime() - t0) / 1e6));
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+
+    private static boolean sameFiles(File a, File b) throws Exception {
+        return Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+    }
+}
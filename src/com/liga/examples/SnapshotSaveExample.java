@@ -0,0 +1,168 @@
+/*
+ * Title: SnapshotSaveExample.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saving during training: one thread keeps adding documents while the model is saved again and again.
+ * Every saved model must be consistent (totals equal the sums of node and edge counts),
+ * training waits only for the snapshots, not for the saves.
+ * Also checks that snapshots and the model stay independent when both of them are trained further
+ */
+public class SnapshotSaveExample {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        final List<MutablePair<String, String>> dataset = dl.dataset;
+
+        File dir = Files.createTempDirectory("liga-snapshots").toFile();
+        File saved = new File(dir, "model.liga");
+
+        final LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        liga.addDataset(dataset, 3);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong added = new AtomicLong();
+        final AtomicLong maxWait = new AtomicLong();
+        Thread trainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; running.get(); i++) {
+                    MutablePair<String, String> entry = dataset.get(i % dataset.size());
+                    long t0 = System.nanoTime();
+                    liga.addDocument(entry.right, entry.left, 3);
+                    maxWait.set(Math.max(maxWait.get(), System.nanoTime() - t0));
+                    added.incrementAndGet();
+                }
+            }
+        });
+        trainer.start();
+
+        int saves = 10;
+        int consistent = 0;
+        long saveTime = 0;
+        long snapshotTime = 0;
+        long maxSnapshot = 0;
+        for (int i = 0; i < saves; i++) {
+            long t0 = System.nanoTime();
+            liga.saveModel(saved.getPath());
+            saveTime += System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            liga.snapshot();
+            snapshotTime += System.nanoTime() - t0;
+            maxSnapshot = Math.max(maxSnapshot, System.nanoTime() - t0);
+
+            LIGA loaded = new LIGA.LIGABuilder(0.0125).build();
+            loaded.loadModel(saved.getPath());
+            if (isConsistent(loaded))
+                consistent++;
+        }
+        running.set(false);
+        trainer.join();
+
+        System.out.println(String.format("%d documents added during %d saves, %d saved models are consistent",
+                added.get(), saves, consistent));
+        // addDocument time includes garbage collection and waiting for the processor, training waits for the saves
+        // only while the snapshot is made
+        System.out.println(String.format("save %.1f ms, snapshot %.2f ms (max %.2f ms), max addDocument time %.2f ms",
+                saveTime / 1e6 / saves, snapshotTime / 1e6 / saves, maxSnapshot / 1e6, maxWait.get() / 1e6));
+        // time of the snapshot itself, without waiting for addDocument
+        long t0 = System.nanoTime();
+        for (int i = 0; i < 100; i++)
+            liga.snapshot();
+        System.out.println(String.format("snapshot of %d ngrams without training %.3f ms",
+                liga.getNodes().size(), (System.nanoTime() - t0) / 1e8));
+        System.out.println("snapshots are independent: " + independentSnapshots(dataset, dir));
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+        System.exit(0);
+    }
+
+    /**
+     * Snapshots share the tables with the model: the model and a snapshot are trained on different messages
+     * after the snapshot, saved models must be the same as of the models trained from scratch
+     */
+    private static boolean independentSnapshots(List<MutablePair<String, String>> dataset, File dir) throws Exception {
+        List<MutablePair<String, String>> first = dataset.subList(0, dataset.size() / 2);
+        List<MutablePair<String, String>> second = dataset.subList(dataset.size() / 2, dataset.size());
+        List<MutablePair<String, String>> other = dataset.subList(dataset.size() / 4, dataset.size() * 3 / 4);
+
+        LIGA liga = new LIGA.LIGABuilder(0.0125).build();
+        liga.addDataset(first, 3);
+        LIGA untouched = liga.snapshot();
+        LIGA trained = liga.snapshot();
+        LIGA nested = trained.snapshot();
+        liga.addDataset(second, 3);
+        trained.addDataset(other, 3);
+        nested.addDataset(second, 3);
+
+        LIGA expectedFirst = new LIGA.LIGABuilder(0.0125).build();
+        expectedFirst.addDataset(first, 3);
+        LIGA expectedAll = new LIGA.LIGABuilder(0.0125).build();
+        expectedAll.addDataset(first, 3);
+        expectedAll.addDataset(second, 3);
+        LIGA expectedOther = new LIGA.LIGABuilder(0.0125).build();
+        expectedOther.addDataset(first, 3);
+        expectedOther.addDataset(other, 3);
+
+        boolean same = sameSaved(untouched, expectedFirst, dir) && sameSaved(liga, expectedAll, dir)
+                && sameSaved(trained, expectedOther, dir) && sameSaved(nested, expectedAll, dir);
+        liga.dropModel();
+        return same && sameSaved(untouched, expectedFirst, dir);
+    }
+
+    /**
+     * compares JSON and binary saves of the models
+     */
+    private static boolean sameSaved(LIGA liga, LIGA expected, File dir) throws Exception {
+        File a = new File(dir, "a.liga");
+        File b = new File(dir, "b.liga");
+        liga.saveModel(a.getPath());
+        expected.saveModel(b.getPath());
+        boolean json = Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+        liga.saveModelBinary(a.getPath());
+        expected.saveModelBinary(b.getPath());
+        return json && Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+    }
+
+    /**
+     * checks that the totals of every language are the sums of its node and edge counts
+     */
+    private static boolean isConsistent(LIGA liga) {
+        Map<String, Long> nodes = new TreeMap<>();
+        Map<String, Long> edges = new TreeMap<>();
+        for (TreeMap<String, Integer> counts : liga.getNodes().values())
+            for (Map.Entry<String, Integer> count : counts.entrySet())
+                nodes.put(count.getKey(), nodes.getOrDefault(count.getKey(), 0L) + count.getValue());
+        for (TreeMap<String, TreeMap<String, Integer>> targets : liga.getEdges().values())
+            for (TreeMap<String, Integer> counts : targets.values())
+                for (Map.Entry<String, Integer> count : counts.entrySet())
+                    edges.put(count.getKey(), edges.getOrDefault(count.getKey(), 0L) + count.getValue());
+        for (Map.Entry<String, MutablePair<Integer, Integer>> total : liga.getCounter().entrySet())
+            if (total.getValue().getLeft() != nodes.getOrDefault(total.getKey(), 0L).intValue()
+                    || total.getValue().getRight() != edges.getOrDefault(total.getKey(), 0L).intValue())
+                return false;
+        return true;
+    }
+}
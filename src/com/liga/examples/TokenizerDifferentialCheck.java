@@ -0,0 +1,191 @@
+/*
+ * Title: TokenizerDifferentialCheck.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.DataLoader;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the single-pass Tokenizer with the former regex chain (copied below) on all the messages of the dataset
+ * and on random messages made of tricky fragments (punctuation, links, numbers with units, repeats, line terminators,
+ * surrogates, special casing), also with the turkish default locale. Prints mismatches and the speedup
+ */
+public class TokenizerDifferentialCheck {
+
+    private static final String[] FRAGMENTS = {"a", "b", "z", "A", "Z", "aaa", "AAAA", "oooo", "!!!", "..", "0", "1",
+            "007", "2kb", "15MB", "3sec", "10ms", "2h", "5hours", "15meters", "3км", "2k", "15ish", "3rd", "21st", "2ый",
+            "6apm", "0xcafe1", "0x", "00x1f", "1e5", "1.5", "-3", "+7", "NaN", "Infinity", "1f", "2d", "0x1p3", "http://",
+            "https://x", "www.", "youtube.com", "a.b", "a/b", ".com", "x.y/z", "@", "~", "_", "-", "–", "…", "«", "»",
+            "'", "‘", "’", "´", "\"", "“", "”", "⟨", "⟩", "°", "©", "™", "—", "§", " ", "  ", "\t", "\n", "\r", "\u000B",
+            "\f", "\u0085", " ", " ", " ", "\u0001", "\u001F", "Σ", "ΣΑΣ", "İ", "I", "ı", "Ё", "привет",
+            "ПРИВЕТ", "ёёёё", "日本", "😀", "😀😀😀", "\uD83D", "\uDE00", "ß", "ǅ", "don't", "web-development", "ﬀ"};
+
+    public static void main(String[] args) {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<String> texts = new ArrayList<>();
+        for (MutablePair<String, String> p : dl.dataset)
+            texts.add(p.getRight());
+
+        Random random = new Random(42);
+        List<String> fuzz = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int fragments = 1 + random.nextInt(12);
+            for (int j = 0; j < fragments; j++) {
+                String fragment = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+                // single characters of fragments, so links, units and repeats are also broken up
+                sb.append(i % 2 == 0 ? fragment : String.valueOf(fragment.charAt(random.nextInt(fragment.length()))));
+            }
+            fuzz.add(sb.toString());
+        }
+
+        int mismatches = compare("dataset", texts) + compare("random", fuzz);
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr"));
+        mismatches += compare("random, tr locale", fuzz);
+        Locale.setDefault(locale);
+
+        // warm up and measure
+        for (int i = 0; i < 3; i++) {
+            timeLegacy(texts);
+            timeTokenizer(texts);
+        }
+        long legacy = timeLegacy(texts);
+        long tokenizer = timeTokenizer(texts);
+        System.out.println(String.format("%d mismatches; preprocess of %d messages: regex chain %.1f ms, " +
+                "single pass %.1f ms, %.1fx faster", mismatches, texts.size(), legacy / 1e6, tokenizer / 1e6,
+                (double) legacy / tokenizer));
+    }
+
+    private static int compare(String name, List<String> texts) {
+        int mismatches = 0;
+        for (String text : texts) {
+            if (!Legacy.preprocess(text).equals(Tokenizer.preprocess(text))
+                    || !Legacy.tokenizeToList(text).equals(Tokenizer.tokenizeToList(text))) {
+                if (mismatches++ < 10)
+                    System.out.println("mismatch: " + escape(text) + " -> " + escape(Legacy.preprocess(text))
+                            + " / " + escape(Tokenizer.preprocess(text)));
+            }
+        }
+        System.out.println(String.format("%s: %d texts, %d mismatches", name, texts.size(), mismatches));
+        return mismatches;
+    }
+
+    private static long timeLegacy(List<String> texts) {
+        long t0 = System.nanoTime();
+        for (String text : texts)
+            Legacy.preprocess(text);
+        return System.nanoTime() - t0;
+    }
+
+    private static long timeTokenizer(List<String> texts) {
+        long t0 = System.nanoTime();
+        for (String text : texts)
+            Tokenizer.preprocess(text);
+        return System.nanoTime() - t0;
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray())
+            sb.append(c < ' ' || c > '~' ? String.format("\\u%04X", (int) c) : String.valueOf(c));
+        return sb.append('"').toString();
+    }
+
+    /**
+     * the former regex chain of the Tokenizer
+     */
+    private static class Legacy {
+
+        final private static String PUNCT = "[\\p{Punct}–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—]";
+        final private static String CHAR_REPEATS_BEG = "^((.)\\2)\\2+";
+        final private static String CHAR_REPEATS_MID_END = "((.)\\2)\\2+";
+        final private static String DATASIZES = "^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$";
+        final private static String SECONDS = "^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$";
+        final private static String HOURS = "^[0-9]+([hч])(our)?(s)?$";
+        final private static String METERS = "^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$";
+        final private static String TIME = "^[0-9]+(ap)m$";
+        final private static String NUMBERS_SUP = "^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$";
+        final private static String HEX = "^([0]+x)[0-9a-f]+$";
+        final private static String CHAR_FILTER = "[^\u0000-῿]";
+
+        static List<String> tokenizeToList(String text) {
+            List<String> tokens = new LinkedList<>();
+            for (String token : text.split("\\s+"))
+                if (tokenCheck(token))
+                    tokens.add(token.replaceAll("['‘’]", ""));
+            List<String> tokensL = new LinkedList<>();
+            for (String token : tokens) {
+                for (String tokenA : token.split(PUNCT)) {
+                    tokenA = compoundTokenEdit(tokenA);
+                    if (tokenCheck(tokenA))
+                        tokensL.add(tokenA);
+                }
+            }
+            return tokensL;
+        }
+
+        static String preprocess(String text) {
+            StringBuilder output = new StringBuilder();
+            for (String token : tokenizeToList(text))
+                output.append(token).append(" ");
+            return output.toString().trim();
+        }
+
+        private static boolean tokenCheck(String token) {
+            return !token.isEmpty()
+                    && !tokenIsLink(token)
+                    && !tokenIsNumber(token.replaceAll(PUNCT, ""))
+                    && token.length() <= 30;
+        }
+
+        private static boolean tokenIsLink(String token) {
+            String p1 = ".*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+";
+            String p2 = "^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?";
+            Pattern pat = Pattern.compile("(" + p1 + ")" + "|" + "(" + p2 + ")");
+            Matcher mat = pat.matcher(token);
+            return mat.matches();
+        }
+
+        private static boolean tokenIsNumber(String token) {
+            try {
+                Double.parseDouble(token);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private static String compoundTokenEdit(String token) {
+            String temp = token.toLowerCase();
+            temp = temp.replaceAll(CHAR_FILTER, "");
+            temp = temp.replaceAll(CHAR_REPEATS_BEG, "$2");
+            temp = temp.replaceAll(CHAR_REPEATS_MID_END, "$2$2");
+            temp = temp.replaceAll(DATASIZES, "");
+            temp = temp.replaceAll(SECONDS, "");
+            temp = temp.replaceAll(HOURS, "");
+            temp = temp.replaceAll(METERS, "");
+            temp = temp.replaceAll(NUMBERS_SUP, "");
+            temp = temp.replaceAll(TIME, "");
+            temp = temp.replaceAll(HEX, "");
+            return temp;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Title: TokenizerProfileBenchmark.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.examples;
+
+import com.liga.CompiledLIGA;
+import com.liga.DataLoader;
+import com.liga.LIGA;
+import com.liga.MappedLIGA;
+import com.liga.Tokenizer;
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tokenizer profiles: preprocessing throughput, accuracy on held-out messages of the models trained with every profile
+ * and the share of messages which both profiles preprocess the same (clean input).
+ * Also checks that JSON, binary and mapped models keep their tokenizer
+ */
+public class TokenizerProfileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        DataLoader dl = new DataLoader.DataLoaderBuilder().build();
+        dl.loadFromFile("res" + File.separator + "original_data.csv", "\t", 1);
+        List<MutablePair<String, String>> dataset = new ArrayList<>(dl.dataset);
+        Collections.shuffle(dataset, new Random(42));
+        List<MutablePair<String, String>> train = dataset.subList(0, dataset.size() * 4 / 5);
+        List<MutablePair<String, String>> test = dataset.subList(dataset.size() * 4 / 5, dataset.size());
+
+        Tokenizer full = Tokenizer.forName(Tokenizer.FULL);
+        Tokenizer fast = Tokenizer.forName(Tokenizer.FAST);
+        int clean = 0;
+        for (MutablePair<String, String> p : dataset)
+            if (full.clean(p.getRight()).equals(fast.clean(p.getRight())))
+                clean++;
+        System.out.println(String.format("%.2f%% of %d messages are preprocessed the same by both profiles",
+                100.0 * clean / dataset.size(), dataset.size()));
+
+        File dir = Files.createTempDirectory("liga-tokenizers").toFile();
+        System.out.println(String.format("%-8s %14s %9s %12s %s", "profile", "messages/s", "accuracy",
+                "training ms", "saved models keep the tokenizer"));
+        for (Tokenizer tokenizer : new Tokenizer[]{full, fast}) {
+            // preprocessing throughput, after warm-up
+            long time = 0;
+            for (int round = 0; round < 10; round++) {
+                long t0 = System.nanoTime();
+                for (MutablePair<String, String> p : dataset)
+                    tokenizer.clean(p.getRight());
+                time += round < 5 ? 0 : System.nanoTime() - t0;
+            }
+
+            long t0 = System.nanoTime();
+            LIGA liga = new LIGA.LIGABuilder(0.0125).setTokenizer(tokenizer).build();
+            liga.addDataset(train, 3);
+            long training = System.nanoTime() - t0;
+            CompiledLIGA compiled = liga.compile();
+            int correct = 0;
+            for (MutablePair<String, String> p : test)
+                if (compiled.classifyMostProbableText(p.getRight(), 3).equals(p.getLeft()))
+                    correct++;
+
+            System.out.println(String.format("%-8s %14.0f %8.2f%% %12.1f %s", tokenizer.getName(),
+                    5.0 * dataset.size() / (time / 1e9), 100.0 * correct / test.size(), training / 1e6,
+                    keepsTokenizer(liga, dir)));
+        }
+
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    /**
+     * saves the model in every format and checks the tokenizer of the loaded models
+     */
+    private static boolean keepsTokenizer(LIGA liga, File dir) throws Exception {
+        File json = new File(dir, "model.liga");
+        File binary = new File(dir, "model.ligab");
+        File mapped = new File(dir, "model.ligam");
+        liga.saveModel(json.getPath());
+        liga.saveModelBinary(binary.getPath());
+        liga.saveModelMapped(mapped.getPath());
+
+        LIGA fromJson = new LIGA.LIGABuilder(0.0125).build();
+        fromJson.loadModel(json.getPath());
+        LIGA fromBinary = new LIGA.LIGABuilder(0.0125).build();
+        fromBinary.loadModelBinary(binary.getPath());
+        MappedLIGA fromMapped = MappedLIGA.open(mapped.getPath(), 0.0125, 1000);
+        return fromJson.getTokenizer().equals(liga.getTokenizer())
+                && fromBinary.getTokenizer().equals(liga.getTokenizer())
+                && fromMapped.getTokenizer().equals(liga.getTokenizer())
+                && fromJson.getNodes().size() == liga.getNodes().size();
+    }
+}
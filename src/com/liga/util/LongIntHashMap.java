@@ -0,0 +1,200 @@
+/*
+ * Title: LongIntHashMap.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive long keys and non-negative int values.
+ * No boxing, no entry objects: keys and values are kept in two parallel arrays (linear probing).
+ *
+ * Maps of ids (values given in order of appearance) can be shared with views ({@link #share}) without copying:
+ * new entries only fill free slots, which the view skips, other changes copy the arrays first
+ */
+public class LongIntHashMap {
+
+    private static final int EMPTY = -1; // marks free slots in values array
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    // entries with values from the limit on are hidden (views, see share)
+    private int limit = Integer.MAX_VALUE;
+    // arrays are shared with views, they are not changed in place except free slots
+    private boolean shared = false;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries which fit without rehashing
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * returns value of the key or -1 if there is no such key
+     *
+     * @param key key
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        int value;
+        while ((value = values[slot]) != EMPTY) {
+            if (keys[slot] == key)
+                return value < limit ? value : EMPTY;
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != EMPTY;
+    }
+
+    /**
+     * puts the value, replaces the old one if key exists
+     *
+     * @param key   key
+     * @param value non-negative value
+     */
+    public void put(long key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative values are not supported: " + value);
+        // views get private arrays before they are changed
+        if (limit != Integer.MAX_VALUE)
+            rehash(values.length);
+        int slot = slot(key);
+        while (values[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                // the old value may be seen by the views
+                if (shared) {
+                    rehash(values.length);
+                    put(key, value);
+                } else {
+                    values[slot] = value;
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt)
+            rehash(values.length << 1);
+    }
+
+    /**
+     * returns an independent copy of the map
+     */
+    public LongIntHashMap copy() {
+        LongIntHashMap out = new LongIntHashMap();
+        out.keys = Arrays.copyOf(keys, keys.length);
+        out.values = Arrays.copyOf(values, values.length);
+        out.mask = mask;
+        out.size = size;
+        out.resizeAt = resizeAt;
+        out.limit = limit;
+        return out;
+    }
+
+    /**
+     * Returns a view of the current entries which shares the arrays with this map (O(1)).
+     * Values of the current entries must be lower than the limit, entries added to this map later -
+     * not lower (ids in order of appearance), the view does not see them.
+     * The view can be read while this map is changed in another thread, it copies the arrays before its own changes
+     *
+     * @param limit values from the limit on are hidden from the view
+     */
+    public LongIntHashMap share(int limit) {
+        LongIntHashMap out = new LongIntHashMap();
+        out.keys = keys;
+        out.values = values;
+        out.mask = mask;
+        out.size = size;
+        out.resizeAt = resizeAt;
+        out.limit = Math.min(limit, this.limit);
+        shared = true;
+        return out;
+    }
+
+    /**
+     * removes all the entries
+     */
+    public void clear() {
+        if (shared || limit != Integer.MAX_VALUE) {
+            allocate(values.length);
+            limit = Integer.MAX_VALUE;
+            shared = false;
+        } else {
+            Arrays.fill(values, EMPTY);
+        }
+        size = 0;
+    }
+
+    /**
+     * slot of the key (Fibonacci hashing, high bits are the best mixed ones)
+     *
+     * @param key key
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32) ^ (h >>> 17)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * moves the entries into new (private) arrays, hidden entries of views are dropped
+     *
+     * @param capacity new capacity
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        int oldLimit = limit;
+        allocate(capacity);
+        limit = Integer.MAX_VALUE;
+        shared = false;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != EMPTY && oldValues[i] < oldLimit) {
+                int slot = slot(oldKeys[i]);
+                while (values[slot] != EMPTY)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+}
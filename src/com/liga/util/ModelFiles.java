@@ -0,0 +1,74 @@
+/*
+ * Title: ModelFiles.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams of model files with optional GZIP compression. Compression is detected on reading
+ * by the GZIP magic number, so plain and compressed models are read the same way. Files are streamed,
+ * never read into memory as a whole
+ */
+public class ModelFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ModelFiles() {
+    }
+
+    /**
+     * Opens model file for reading, decompresses it if it is compressed
+     *
+     * @param path model path
+     */
+    public static InputStream open(String path) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE);
+        try {
+            if (isCompressed(in))
+                return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates model file for writing
+     *
+     * @param path       model path
+     * @param compressed if true - the file is compressed with GZIP
+     */
+    public static OutputStream create(String path, boolean compressed) throws IOException {
+        OutputStream out = new FileOutputStream(path);
+        if (compressed)
+            return new BufferedOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_SIZE);
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Checks if the stream starts with the GZIP magic number, stream position is not changed
+     *
+     * @param in stream with mark support
+     */
+    private static boolean isCompressed(InputStream in) throws IOException {
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        return b1 == (GZIPInputStream.GZIP_MAGIC & 0xFF) && b2 == (GZIPInputStream.GZIP_MAGIC >>> 8);
+    }
+}
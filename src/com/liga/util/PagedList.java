@@ -0,0 +1,102 @@
+/*
+ * Title: PagedList.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.RandomAccess;
+
+/**
+ * Array list kept in fixed size pages. Copies share the pages ({@link #share}, O(number of pages))
+ * and every list copies a shared page only before it changes it (copy-on-write),
+ * so a copy of a big list is cheap and the changes cost one page each
+ */
+public class PagedList<T> extends AbstractList<T> implements RandomAccess {
+
+    private static final int SHIFT = 8;
+    private static final int PAGE = 1 << SHIFT;
+    private static final int MASK = PAGE - 1;
+
+    private Object[][] pages = new Object[4][];
+    private int size = 0;
+    // pages shared with copies
+    private BitSet shared = new BitSet();
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return (T) pages[index >>> SHIFT][index & MASK];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T set(int index, T element) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        Object[] page = writablePage(index >>> SHIFT);
+        T old = (T) page[index & MASK];
+        page[index & MASK] = element;
+        return old;
+    }
+
+    @Override
+    public boolean add(T element) {
+        int page = size >>> SHIFT;
+        if (page == pages.length)
+            pages = Arrays.copyOf(pages, page << 1);
+        if (pages[page] == null)
+            pages[page] = new Object[PAGE];
+        writablePage(page)[size & MASK] = element;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        // pages may be shared, they are dropped and not cleared
+        pages = new Object[4][];
+        size = 0;
+        shared.clear();
+        modCount++;
+    }
+
+    /**
+     * Returns a copy of the list which shares the pages with this one, both copy a shared page before changing it
+     */
+    public PagedList<T> share() {
+        int count = (size + MASK) >>> SHIFT;
+        PagedList<T> out = new PagedList<>();
+        out.pages = Arrays.copyOf(pages, Math.max(4, count));
+        out.size = size;
+        out.shared.set(0, count);
+        shared.set(0, count);
+        return out;
+    }
+
+    /**
+     * page which can be changed in place (copied first if it is shared)
+     *
+     * @param page page index
+     */
+    private Object[] writablePage(int page) {
+        if (shared.get(page)) {
+            shared.clear(page);
+            pages[page] = pages[page].clone();
+        }
+        return pages[page];
+    }
+}
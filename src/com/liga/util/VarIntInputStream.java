@@ -0,0 +1,133 @@
+/*
+ * Title: VarIntInputStream.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Buffered input stream for the values written by {@link VarIntOutputStream}.
+ * Keeps CRC32 checksum of all the read bytes
+ */
+public class VarIntInputStream extends FilterInputStream {
+
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private int limit = 0;
+    // bytes of buffer before this position are already added to checksum
+    private int checked = 0;
+    private final CRC32 crc = new CRC32();
+
+    public VarIntInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position == limit && !fill())
+            return -1;
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - position + in.available();
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() >= 0)
+            skipped++;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * reads variable length int
+     */
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length int");
+    }
+
+    /**
+     * reads string
+     */
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (length < 0)
+            throw new IOException("Malformed string length: " + length);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) readVarInt();
+        return new String(chars);
+    }
+
+    /**
+     * reads 4 bytes int (big-endian)
+     */
+    public int readFixedInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    /**
+     * reads one byte, fails at the end of stream
+     */
+    public int readByte() throws IOException {
+        if (position == limit && !fill())
+            throw new EOFException();
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * CRC32 of all the bytes read so far
+     */
+    public int checksum() {
+        crc.update(buffer, checked, position - checked);
+        checked = position;
+        return (int) crc.getValue();
+    }
+
+    private boolean fill() throws IOException {
+        crc.update(buffer, checked, limit - checked);
+        position = 0;
+        limit = 0;
+        checked = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0)
+            return false;
+        limit = n;
+        return true;
+    }
+}
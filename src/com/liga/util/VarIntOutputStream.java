@@ -0,0 +1,101 @@
+/*
+ * Title: VarIntOutputStream.java
+ * Project: LIGA
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.liga.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Buffered output stream with variable length ints (7 bits per byte, high bit - continuation) and strings,
+ * small numbers take one byte, negative ints are written as unsigned ones (5 bytes).
+ * Keeps CRC32 checksum of all the written bytes
+ */
+public class VarIntOutputStream extends FilterOutputStream {
+
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private final CRC32 crc = new CRC32();
+
+    public VarIntOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == buffer.length)
+            flushBuffer();
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = 0; i < len; i++)
+            write(b[off + i]);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * writes int as variable length number
+     *
+     * @param value value
+     */
+    public void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
+
+    /**
+     * writes string as its length and UTF-16 chars (every char is variable length number),
+     * any string is written as is, including unpaired surrogates of ngrams which split a character
+     *
+     * @param value value
+     */
+    public void writeString(String value) throws IOException {
+        writeVarInt(value.length());
+        for (int i = 0; i < value.length(); i++)
+            writeVarInt(value.charAt(i));
+    }
+
+    /**
+     * writes int as 4 bytes (big-endian)
+     *
+     * @param value value
+     */
+    public void writeFixedInt(int value) throws IOException {
+        write(value >>> 24);
+        write(value >>> 16);
+        write(value >>> 8);
+        write(value);
+    }
+
+    /**
+     * CRC32 of all the bytes written so far
+     */
+    public int checksum() throws IOException {
+        flushBuffer();
+        return (int) crc.getValue();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            crc.update(buffer, 0, position);
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}